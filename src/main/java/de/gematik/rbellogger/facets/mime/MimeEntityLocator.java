@@ -0,0 +1,177 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.util.RbelContent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Locates the header block, the body and the multipart body parts of a MIME entity directly in the
+ * raw content. The resulting ranges allow every part of a message to be referenced as a view of
+ * the original content instead of searching for (or copying) the bytes mime4j produced.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class MimeEntityLocator {
+
+  private static final byte[] LF = {'\n'};
+  private static final Set<String> IDENTITY_TRANSFER_ENCODINGS = Set.of("7bit", "8bit", "binary");
+
+  record Range(int start, int end) {
+    RbelContent of(RbelContent content) {
+      return content.subArray(start, end);
+    }
+
+    boolean isEmpty() {
+      return start >= end;
+    }
+
+    int length() {
+      return end - start;
+    }
+  }
+
+  record EntityLayout(Range header, Range body) {}
+
+  record MultipartLayout(Range preamble, List<Range> parts, @Nullable Range epilogue) {}
+
+  /** Splits an entity at the first empty line into its header block and its body. */
+  static EntityLayout locateEntity(RbelContent content) {
+    int size = content.size();
+    if (startsWithLineBreak(content, 0)) {
+      return new EntityLayout(new Range(0, 0), new Range(lineBreakLength(content, 0), size));
+    }
+    int lineFeed = content.indexOf(LF);
+    while (lineFeed >= 0 && lineFeed + 1 < size) {
+      if (startsWithLineBreak(content, lineFeed + 1)) {
+        int bodyStart = lineFeed + 1 + lineBreakLength(content, lineFeed + 1);
+        return new EntityLayout(new Range(0, lineFeed + 1), new Range(bodyStart, size));
+      }
+      lineFeed = content.indexOf(LF, lineFeed + 1);
+    }
+    return new EntityLayout(new Range(0, size), new Range(size, size));
+  }
+
+  /**
+   * Splits a multipart body at its delimiter lines (RFC 2046, section 5.1.1). The line break
+   * preceding a delimiter belongs to the delimiter, not to the body part before it.
+   */
+  static Optional<MultipartLayout> locateParts(RbelContent body, String boundary) {
+    if (boundary == null || boundary.isEmpty()) {
+      return Optional.empty();
+    }
+    var delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+    var delimiterPosition = findDelimiter(body, delimiter, 0);
+    if (delimiterPosition < 0) {
+      return Optional.empty();
+    }
+    var preamble = new Range(0, startOfPrecedingLineBreak(body, delimiterPosition));
+    var parts = new ArrayList<Range>();
+    Range epilogue = null;
+    while (delimiterPosition >= 0) {
+      int afterDelimiter = delimiterPosition + delimiter.length;
+      boolean closeDelimiter = isCloseDelimiter(body, afterDelimiter);
+      int partStart = endOfLine(body, afterDelimiter);
+      if (closeDelimiter) {
+        epilogue = new Range(partStart, body.size());
+        break;
+      }
+      delimiterPosition = findDelimiter(body, delimiter, partStart);
+      int partEnd =
+          delimiterPosition < 0
+              ? body.size()
+              : Math.max(partStart, startOfPrecedingLineBreak(body, delimiterPosition));
+      parts.add(new Range(partStart, partEnd));
+    }
+    return Optional.of(new MultipartLayout(preamble, parts, epilogue));
+  }
+
+  static boolean isIdentityTransferEncoding(@Nullable String transferEncoding) {
+    return transferEncoding == null
+        || IDENTITY_TRANSFER_ENCODINGS.contains(transferEncoding.trim().toLowerCase(Locale.ROOT));
+  }
+
+  private static int findDelimiter(RbelContent content, byte[] delimiter, int from) {
+    int position = content.indexOf(delimiter, from);
+    while (position >= 0) {
+      if ((position == 0 || content.get(position - 1) == '\n')
+          && isDelimiterEnd(content, position + delimiter.length)) {
+        return position;
+      }
+      position = content.indexOf(delimiter, position + 1);
+    }
+    return -1;
+  }
+
+  /**
+   * A delimiter line is the boundary, optionally followed by "--", then linear whitespace and the
+   * line break (RFC 2046, section 5.1.1). A line which merely starts with the boundary is content.
+   */
+  private static boolean isDelimiterEnd(RbelContent content, int index) {
+    int size = content.size();
+    if (isCloseDelimiter(content, index)) {
+      index += 2;
+    }
+    while (index < size && (content.get(index) == ' ' || content.get(index) == '\t')) {
+      index++;
+    }
+    return index >= size || content.get(index) == '\r' || content.get(index) == '\n';
+  }
+
+  private static boolean isCloseDelimiter(RbelContent content, int index) {
+    return index + 1 < content.size() && content.get(index) == '-' && content.get(index + 1) == '-';
+  }
+
+  private static int endOfLine(RbelContent content, int from) {
+    int lineFeed = content.indexOf(LF, from);
+    return lineFeed < 0 ? content.size() : lineFeed + 1;
+  }
+
+  private static int startOfPrecedingLineBreak(RbelContent content, int position) {
+    if (position > 0 && content.get(position - 1) == '\n') {
+      return position > 1 && content.get(position - 2) == '\r' ? position - 2 : position - 1;
+    }
+    return position;
+  }
+
+  private static boolean startsWithLineBreak(RbelContent content, int index) {
+    return lineBreakLength(content, index) > 0;
+  }
+
+  private static int lineBreakLength(RbelContent content, int index) {
+    if (index < content.size() && content.get(index) == '\n') {
+      return 1;
+    }
+    if (index + 1 < content.size()
+        && content.get(index) == '\r'
+        && content.get(index + 1) == '\n') {
+      return 2;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet.Target;
+import de.gematik.rbellogger.util.EmailConfigurationKeys;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The configured resource limits for parsing a single MIME message, see {@link
+ * EmailConfigurationKeys}. One instance is used per message, it also counts the decoded bytes.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+class MimeLimits {
+
+  static final String NESTING_DEPTH = "maximum nesting depth reached";
+  static final String PART_COUNT = "maximum number of body parts reached";
+  static final String HEADER_SIZE = "maximum header size exceeded";
+  static final String DECODED_SIZE = "maximum decoded size exceeded";
+
+  private final int maxDepth;
+  private final int maxParts;
+  private final long maxHeaderBytes;
+  private final long maxDecodedBytes;
+
+  /** The nesting depth of the message itself, i.e. the number of enclosing MIME messages. */
+  private final int baseDepth;
+
+  private final AtomicLong decodedBytes = new AtomicLong();
+
+  static MimeLimits forMessage(RbelElement message) {
+    return new MimeLimits(
+        EmailConfigurationKeys.MIME_MAX_NESTING_DEPTH.getValueOrDefault(),
+        EmailConfigurationKeys.MIME_MAX_PARTS.getValueOrDefault(),
+        EmailConfigurationKeys.MIME_MAX_HEADER_KB.getValueOrDefault() * 1024L,
+        EmailConfigurationKeys.MIME_MAX_DECODED_KB.getValueOrDefault() * 1024L,
+        countEnclosingMessages(message));
+  }
+
+  private static int countEnclosingMessages(RbelElement message) {
+    int count = 0;
+    for (var node = message.getParentNode(); node != null; node = node.getParentNode()) {
+      if (RbelMimeRoutingFacet.isRoutedTo(node, Target.MIME_MESSAGE)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param depth the nesting depth of an entity within the message, 0 for the message itself
+   */
+  boolean isDepthExceeded(int depth) {
+    return maxDepth >= 0 && baseDepth + depth > maxDepth;
+  }
+
+  boolean isPartCountExceeded(int parts) {
+    return maxParts >= 0 && parts > maxParts;
+  }
+
+  int allowedParts(int parts) {
+    return isPartCountExceeded(parts) ? maxParts : parts;
+  }
+
+  boolean isHeaderTooLarge(long headerBytes) {
+    return maxHeaderBytes >= 0 && headerBytes > maxHeaderBytes;
+  }
+
+  /** The same limits, without the decoded bytes accounted for so far. */
+  MimeLimits withoutReservations() {
+    return new MimeLimits(maxDepth, maxParts, maxHeaderBytes, maxDecodedBytes, baseDepth);
+  }
+
+  /** The number of decoded bytes still within the limit, {@link Long#MAX_VALUE} if unlimited. */
+  long remainingDecoded() {
+    return maxDecodedBytes < 0
+        ? Long.MAX_VALUE
+        : Math.max(0, maxDecodedBytes - decodedBytes.get());
+  }
+
+  /** Accounts for the given number of decoded bytes, if they are still within the limit. */
+  boolean tryReserveDecoded(long bytes) {
+    if (maxDecodedBytes < 0) {
+      return true;
+    }
+    long current;
+    do {
+      current = decodedBytes.get();
+      if (current + bytes > maxDecodedBytes) {
+        return false;
+      }
+    } while (!decodedBytes.compareAndSet(current, current + bytes));
+    return true;
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.util.RbelContent;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.apache.james.mime4j.util.CharsetUtil;
+
+/**
+ * Transfer decoding of MIME bodies. The decoded bytes become the content of the body element, so
+ * they are produced once during conversion; the textual representation is only computed when it
+ * is read. The decoders work directly on the raw content and write into a single buffer, without
+ * intermediate streams.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class MimeTransferDecoding {
+
+  static final String BASE64 = "base64";
+  static final String QUOTED_PRINTABLE = "quoted-printable";
+
+  /** The number of raw bytes copied out of the content at once while decoding base64. */
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private static final byte[] BASE64_VALUES = new byte[256];
+
+  static {
+    Arrays.fill(BASE64_VALUES, (byte) -1);
+    var alphabet =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+    for (int i = 0; i < alphabet.length; i++) {
+      BASE64_VALUES[alphabet[i]] = (byte) i;
+    }
+  }
+
+  /** Removes the transfer encoding, bodies without (or with an unknown) encoding are returned. */
+  static RbelContent decode(RbelContent raw, @Nullable String transferEncoding) {
+    var encoding = normalize(transferEncoding);
+    if (BASE64.equals(encoding)) {
+      return decodeBase64(raw);
+    } else if (QUOTED_PRINTABLE.equals(encoding)) {
+      return decodeQuotedPrintable(raw);
+    } else {
+      return raw;
+    }
+  }
+
+  /**
+   * Decodes base64 leniently (like mime4j): characters outside the alphabet, in particular line
+   * breaks, are skipped and decoding stops at the first padding character. The output buffer is
+   * sized by {@link #decodedSizeEstimate}, see {@link #exactly} for how it is returned.
+   */
+  static RbelContent decodeBase64(RbelContent raw) {
+    var out = new byte[(int) decodedSizeEstimate(raw, BASE64)];
+    int length = 0;
+    int quantum = 0;
+    int count = 0;
+    decoding:
+    for (int from = 0; from < raw.size(); from += BLOCK_SIZE) {
+      for (byte b : raw.toByteArray(from, Math.min(raw.size(), from + BLOCK_SIZE))) {
+        if (b == '=') {
+          break decoding;
+        }
+        int value = BASE64_VALUES[b & 0xff];
+        if (value < 0) {
+          continue;
+        }
+        quantum = quantum << 6 | value;
+        if (++count == 4) {
+          out[length++] = (byte) (quantum >> 16);
+          out[length++] = (byte) (quantum >> 8);
+          out[length++] = (byte) quantum;
+          quantum = 0;
+          count = 0;
+        }
+      }
+    }
+    if (count == 2) {
+      out[length++] = (byte) (quantum >> 4);
+    } else if (count == 3) {
+      out[length++] = (byte) (quantum >> 10);
+      out[length++] = (byte) (quantum >> 2);
+    }
+    return exactly(out, length);
+  }
+
+  /**
+   * Decodes quoted-printable leniently: soft line breaks (also with transport padding) are
+   * removed, as is whitespace at the end of lines, and invalid escapes are kept literally. The
+   * input is read from the content directly, it is not copied first.
+   */
+  static RbelContent decodeQuotedPrintable(RbelContent in) {
+    int size = in.size();
+    var out = new byte[size];
+    int length = 0;
+    int i = 0;
+    while (i < size) {
+      byte b = in.get(i);
+      if (b == '=') {
+        int next = skipBlanks(in, i + 1);
+        int lineBreak = lineBreakLength(in, next);
+        if (next == size || lineBreak > 0) {
+          i = next + lineBreak;
+          continue;
+        }
+        int high = i + 2 < size ? Character.digit(in.get(i + 1), 16) : -1;
+        int low = high >= 0 ? Character.digit(in.get(i + 2), 16) : -1;
+        if (low >= 0) {
+          out[length++] = (byte) (high << 4 | low);
+          i += 3;
+        } else {
+          out[length++] = b;
+          i++;
+        }
+      } else if (b == ' ' || b == '\t') {
+        int next = skipBlanks(in, i);
+        if (next < size && lineBreakLength(in, next) == 0) {
+          while (i < next) {
+            out[length++] = in.get(i++);
+          }
+        }
+        i = next;
+      } else {
+        out[length++] = b;
+        i++;
+      }
+    }
+    return exactly(out, length);
+  }
+
+  /**
+   * The first {@code length} bytes of a decoding buffer. A view is enough if the buffer is mostly
+   * used, otherwise the bytes are copied once so that the unused rest can be collected.
+   */
+  private static RbelContent exactly(byte[] buffer, int length) {
+    if (buffer.length - length > buffer.length / 8) {
+      return RbelContent.of(Arrays.copyOf(buffer, length));
+    }
+    return RbelContent.of(buffer).subArray(0, length);
+  }
+
+  private static int skipBlanks(RbelContent in, int index) {
+    while (index < in.size() && (in.get(index) == ' ' || in.get(index) == '\t')) {
+      index++;
+    }
+    return index;
+  }
+
+  private static int lineBreakLength(RbelContent in, int index) {
+    if (index < in.size() && in.get(index) == '\n') {
+      return 1;
+    } else if (index + 1 < in.size() && in.get(index) == '\r' && in.get(index + 1) == '\n') {
+      return 2;
+    } else {
+      return 0;
+    }
+  }
+
+  /** An upper bound for the number of bytes {@link #decode} creates. */
+  static long decodedSizeEstimate(RbelContent raw, @Nullable String transferEncoding) {
+    var encoding = normalize(transferEncoding);
+    if (BASE64.equals(encoding)) {
+      return raw.size() / 4L * 3 + 3;
+    } else if (QUOTED_PRINTABLE.equals(encoding)) {
+      return raw.size();
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * The lazily computed text shown for a body: text and 7bit bodies are decoded with their
+   * declared charset, everything else is shown as base64. Base64 encoded bodies are shown
+   * from their raw representation, so they are neither decoded nor encoded again for that.
+   */
+  static Supplier<String> displayValue(
+      @Nullable String mimeType,
+      @Nullable String charset,
+      @Nullable String transferEncoding,
+      RbelContent raw,
+      RbelContent decoded) {
+    var encoding = normalize(transferEncoding);
+    if (isText(mimeType) || RbelMimeConverter.TRANSFER_ENCODING_7_BIT.equals(encoding)) {
+      // the bytes stay as they are on the wire, only the String view uses the declared charset
+      var textCharset = charsetOf(charset);
+      return () -> new String(decoded.toByteArray(), textCharset);
+    } else if (BASE64.equals(encoding)) {
+      return () -> withoutWhitespace(raw);
+    } else {
+      return () -> Base64.getEncoder().encodeToString(decoded.toByteArray());
+    }
+  }
+
+  private static boolean isText(@Nullable String mimeType) {
+    return mimeType != null && mimeType.toLowerCase(Locale.ROOT).startsWith("text/");
+  }
+
+  /** The declared charset, US-ASCII (the MIME default) if it is missing or unknown. */
+  private static Charset charsetOf(@Nullable String charset) {
+    return Optional.ofNullable(charset)
+        .map(CharsetUtil::lookup)
+        .orElse(StandardCharsets.US_ASCII);
+  }
+
+  private static String withoutWhitespace(RbelContent raw) {
+    var out = new ByteArrayOutputStream(raw.size());
+    for (byte b : raw.toByteArray()) {
+      if (b != '\r' && b != '\n' && b != ' ' && b != '\t') {
+        out.write(b);
+      }
+    }
+    return out.toString(StandardCharsets.US_ASCII);
+  }
+
+  @Nullable
+  private static String normalize(@Nullable String transferEncoding) {
+    return transferEncoding == null ? null : transferEncoding.trim().toLowerCase(Locale.ROOT);
+  }
+}
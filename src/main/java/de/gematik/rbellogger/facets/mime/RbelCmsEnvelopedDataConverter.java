@@ -26,17 +26,18 @@ import de.gematik.rbellogger.converter.ConverterInfo;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelListFacet;
 import de.gematik.rbellogger.exceptions.RbelConversionException;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet.Target;
 import de.gematik.rbellogger.facets.pki.CmsEntityIdentifierFacet;
 import de.gematik.rbellogger.facets.pki.OidDictionary;
 import de.gematik.rbellogger.facets.pop3.RbelPop3Command;
 import de.gematik.rbellogger.facets.pop3.RbelPop3ResponseConverter;
 import de.gematik.rbellogger.facets.pop3.RbelPop3ResponseFacet;
+import de.gematik.rbellogger.util.EmailConfigurationKeys;
 import de.gematik.rbellogger.util.EmailConversionUtils;
 import de.gematik.rbellogger.util.email_crypto.EmailDecryption;
 import java.io.IOException;
 import java.util.Optional;
 import lombok.SneakyThrows;
-import org.bouncycastle.cms.CMSAuthEnvelopedData;
 import org.bouncycastle.cms.CMSException;
 import org.bouncycastle.cms.KeyTransRecipientId;
 import org.bouncycastle.cms.RecipientInformation;
@@ -44,29 +45,34 @@ import org.bouncycastle.cms.RecipientInformation;
 @ConverterInfo(onlyActivateFor = "mime")
 public class RbelCmsEnvelopedDataConverter extends RbelConverterPlugin {
 
+  private static final String DECRYPTED_SIZE = "maximum decrypted size exceeded";
+
   @Override
   @SneakyThrows
   public void consumeElement(RbelElement rbelElement, RbelConversionExecutor converter) {
-    if (rbelElement.getContent().isEmpty() || isMimeBodyOfPop3TopResponse(rbelElement, converter)) {
+    if (!RbelMimeRoutingFacet.isRoutedTo(rbelElement, Target.AUTHENTICATED_ENVELOPED_DATA)
+        || rbelElement.getContent().isEmpty()
+        || isMimeBodyOfPop3TopResponse(rbelElement, converter)) {
+      return;
+    }
+    if (exceedsDecryptionLimit(rbelElement)) {
+      RbelMimeTruncatedFacet.markTruncated(rbelElement, DECRYPTED_SIZE);
       return;
     }
-    if (Optional.ofNullable(rbelElement.getParentNode())
-        .flatMap(node -> node.getFacet(RbelMimeMessageFacet.class))
-        .map(RbelMimeMessageFacet::header)
-        .flatMap(header -> header.getFacet(RbelMimeHeaderFacet.class))
-        .map(header -> header.get("content-type"))
-        .map(RbelElement::getRawStringContent)
-        .filter(contentType -> contentType.contains("smime-type=authenticated-enveloped-data"))
-        .isPresent()) {
-      try {
-        RbelCmsEnvelopedDataFacet facet = parseEncryptedMessage(rbelElement, converter);
-        rbelElement.addFacet(facet);
-      } catch (CMSException e) {
-        throw new RbelConversionException(e, rbelElement, this);
-      }
+    try {
+      RbelCmsEnvelopedDataFacet facet = parseEncryptedMessage(rbelElement, converter);
+      rbelElement.addFacet(facet);
+    } catch (CMSException e) {
+      throw new RbelConversionException(e, rbelElement, this);
     }
   }
 
+  /** The plaintext is never larger than the enveloped data, so its size is used as bound. */
+  private static boolean exceedsDecryptionLimit(RbelElement rbelElement) {
+    var maxDecryptedKb = EmailConfigurationKeys.CMS_MAX_DECRYPTED_KB.getValueOrDefault();
+    return maxDecryptedKb >= 0 && rbelElement.getContent().size() > maxDecryptedKb * 1024L;
+  }
+
   private static boolean isMimeBodyOfPop3TopResponse(
       RbelElement rbelElement, RbelConversionExecutor converter) {
     return Optional.ofNullable(rbelElement.getParentNode())
@@ -83,15 +89,18 @@ public class RbelCmsEnvelopedDataConverter extends RbelConverterPlugin {
       RbelElement element, RbelConversionExecutor context) throws CMSException {
     var keyManager = context.getRbelKeyManager();
 
+    var envelopedData = EmailDecryption.parse(element.getContent());
     var decryptedMessage =
-        EmailDecryption.decrypt(element.getContent(), keyManager)
+        EmailDecryption.decrypt(envelopedData, keyManager)
             .orElseThrow(
                 () -> new RbelConversionException("Could not decrypt content", element, this));
-    var envelopedData = new CMSAuthEnvelopedData(element.getContent().toInputStream());
     var unauthAttributes = envelopedData.getUnauthAttrs();
     var authAttributes = envelopedData.getAuthAttrs();
 
-    var decryptedMessageElement = context.convertElement(decryptedMessage, element);
+    var decryptedMessageElement =
+        context.convertElement(
+            RbelMimeRoutingFacet.routeTo(
+                new RbelElement(decryptedMessage, element), Target.MIME_MESSAGE));
     var unauthAttributesElement =
         EmailConversionUtils.buildAttributesAndExtractRecipientIds(
             unauthAttributes, element, context);
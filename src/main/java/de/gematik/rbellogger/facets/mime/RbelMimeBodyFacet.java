@@ -28,11 +28,20 @@ import de.gematik.rbellogger.data.core.RbelRootFacet;
 import de.gematik.rbellogger.renderer.RbelHtmlFacetRenderer;
 import de.gematik.rbellogger.renderer.RbelHtmlRenderer;
 import de.gematik.rbellogger.renderer.RbelHtmlRenderingToolkit;
+import de.gematik.rbellogger.util.RbelContent;
 import j2html.tags.ContainerTag;
 import j2html.tags.specialized.H2Tag;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import lombok.Getter;
 
+/**
+ * The body of a MIME entity which is neither a multipart nor a message. The element content holds
+ * the transfer decoded bytes, because nested converters (CMS, signed data, nested MIME) need them
+ * right away. What is deferred is the textual value, i.e. the charset decoding or the base64
+ * representation shown for the body, and the encoded form is kept as a view of the message.
+ */
 public class RbelMimeBodyFacet extends RbelLazyValueFacet<String> {
 
   static {
@@ -71,7 +80,28 @@ public class RbelMimeBodyFacet extends RbelLazyValueFacet<String> {
         });
   }
 
+  /** The body as it appears in the message, i.e. before the transfer decoding. */
+  @Getter private final Optional<RbelContent> encodedContent;
+
   public RbelMimeBodyFacet(Supplier<String> value) {
-    super(value);
+    this(value, null);
+  }
+
+  /** The textual value is computed on first access only and then kept. */
+  public RbelMimeBodyFacet(Supplier<String> value, RbelContent encodedContent) {
+    super(memoize(value));
+    this.encodedContent = Optional.ofNullable(encodedContent);
+  }
+
+  private static Supplier<String> memoize(Supplier<String> value) {
+    var memoized = new AtomicReference<String>();
+    return () -> {
+      var result = memoized.get();
+      if (result == null) {
+        result = value.get();
+        memoized.compareAndSet(null, result);
+      }
+      return result;
+    };
   }
 }
@@ -0,0 +1,98 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.RbelMultiMap;
+import de.gematik.rbellogger.data.core.RbelFacet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.dom.field.ContentTypeField;
+import org.apache.james.mime4j.field.ContentTypeFieldLenientImpl;
+import org.apache.james.mime4j.stream.Field;
+
+/**
+ * The parsed Content-Type of a MIME entity, attached to the element of its header. Converters use
+ * it to decide how a body is interpreted without parsing the header value again.
+ *
+ * @param mediaType the lower case media type, e.g. {@code application}
+ * @param subType the lower case sub type, e.g. {@code pkcs7-mime}
+ * @param parameters the parameters with lower case names
+ */
+public record RbelMimeContentTypeFacet(
+    String mediaType, String subType, Map<String, String> parameters) implements RbelFacet {
+
+  public static final String SMIME_TYPE = "smime-type";
+
+  static RbelMimeContentTypeFacet of(ContentTypeField field) {
+    return new RbelMimeContentTypeFacet(
+        field.getMediaType(),
+        field.getSubType(),
+        Collections.unmodifiableMap(new LinkedHashMap<>(field.getParameters())));
+  }
+
+  static RbelMimeContentTypeFacet parse(Field field) {
+    return field instanceof ContentTypeField contentTypeField
+        ? of(contentTypeField)
+        : of(ContentTypeFieldLenientImpl.PARSER.parse(field, DecodeMonitor.SILENT));
+  }
+
+  /** Finds the Content-Type of the MIME message the given element is the body of. */
+  public static Optional<RbelMimeContentTypeFacet> findForBody(RbelElement body) {
+    return Optional.ofNullable(body.getParentNode())
+        .flatMap(node -> node.getFacet(RbelMimeMessageFacet.class))
+        .map(RbelMimeMessageFacet::header)
+        .flatMap(header -> header.getFacet(RbelMimeContentTypeFacet.class));
+  }
+
+  public String mimeType() {
+    return mediaType + "/" + subType;
+  }
+
+  public Optional<String> parameter(String name) {
+    return Optional.ofNullable(parameters.get(name.toLowerCase(Locale.ROOT)));
+  }
+
+  public boolean hasMimeType(String mimeType) {
+    return mimeType().equalsIgnoreCase(mimeType);
+  }
+
+  public boolean hasSmimeType(String smimeType) {
+    return parameter(SMIME_TYPE).filter(smimeType::equalsIgnoreCase).isPresent();
+  }
+
+  public Optional<String> boundary() {
+    return parameter("boundary");
+  }
+
+  public Optional<String> charset() {
+    return parameter("charset");
+  }
+
+  @Override
+  public RbelMultiMap<RbelElement> getChildElements() {
+    return new RbelMultiMap<>();
+  }
+}
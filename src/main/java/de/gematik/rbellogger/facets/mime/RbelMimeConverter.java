@@ -27,30 +27,30 @@ import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelListFacet;
 import de.gematik.rbellogger.data.core.RbelRootFacet;
 import de.gematik.rbellogger.exceptions.RbelConversionException;
-import de.gematik.rbellogger.facets.pop3.RbelPop3ResponseFacet;
-import de.gematik.rbellogger.facets.smtp.RbelSmtpCommandFacet;
+import de.gematik.rbellogger.facets.mime.MimeEntityLocator.EntityLayout;
+import de.gematik.rbellogger.facets.mime.MimeEntityLocator.MultipartLayout;
+import de.gematik.rbellogger.facets.mime.MimeEntityLocator.Range;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet.Target;
 import de.gematik.rbellogger.util.ByteArrayUtils;
+import de.gematik.rbellogger.util.EmailConfigurationKeys;
 import de.gematik.rbellogger.util.RbelContent;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.tuple.Pair;
-import org.apache.james.mime4j.dom.Body;
 import org.apache.james.mime4j.dom.Entity;
 import org.apache.james.mime4j.dom.Header;
 import org.apache.james.mime4j.dom.Message;
 import org.apache.james.mime4j.dom.Multipart;
 import org.apache.james.mime4j.dom.SingleBody;
-import org.apache.james.mime4j.dom.TextBody;
+import org.apache.james.mime4j.dom.field.ContentTypeField;
 import org.apache.james.mime4j.message.DefaultMessageBuilder;
+import org.apache.james.mime4j.message.DefaultMessageWriter;
 import org.apache.james.mime4j.stream.Field;
 import org.apache.james.mime4j.stream.MimeConfig;
 
@@ -58,80 +58,81 @@ import org.apache.james.mime4j.stream.MimeConfig;
 @Slf4j
 public class RbelMimeConverter extends RbelConverterPlugin {
 
-  private static final Pattern AUTHENTICATED_ENVELOPED_OR_SIGNED_DATA =
-      Pattern.compile(
-          "application/pkcs7-mime\\s*;.*smime-type=(authenticated-enveloped|signed)-data.*",
-          Pattern.DOTALL);
+  public static final String PKCS7_MIME = "application/pkcs7-mime";
+  public static final String SMIME_AUTHENTICATED_ENVELOPED_DATA = "authenticated-enveloped-data";
+  public static final String SMIME_SIGNED_DATA = "signed-data";
 
-  private static final String TRANSFER_ENCODING_7_BIT = "7bit";
+  static final String TRANSFER_ENCODING_7_BIT = "7bit";
   public static final String CONTENT_TRANSFER_ENCODING = "content-transfer-encoding";
+  public static final String CONTENT_TYPE = "content-type";
 
   @Override
   public void consumeElement(final RbelElement element, final RbelConversionExecutor context) {
-    Optional.ofNullable(element.getParentNode())
-        .filter(parent -> isPossibleMimeElementOf(element, parent))
-        .map(facet -> element.getContent().toInputStream())
-        .ifPresent(
-            content ->
-                new Parser(context).buildMimeMessageFacet(element, parseMimeMessage(content)));
+    if (element.getParentNode() != null
+        && RbelMimeRoutingFacet.isRoutedTo(element, Target.MIME_MESSAGE)) {
+      parse(element, context);
+    }
   }
 
-  private boolean isPossibleMimeElementOf(RbelElement element, RbelElement parent) {
-    return parent
-            .getFacet(RbelPop3ResponseFacet.class)
-            .map(RbelPop3ResponseFacet::getBody)
-            .filter(element::equals)
-            .isPresent()
-        || parent
-            .getFacet(RbelSmtpCommandFacet.class)
-            .map(RbelSmtpCommandFacet::getBody)
-            .filter(element::equals)
-            .isPresent()
-        || parent
-            .getFacet(RbelCmsEnvelopedDataFacet.class)
-            .map(RbelCmsEnvelopedDataFacet::getDecrypted)
-            .filter(element::equals)
-            .isPresent()
-        || parent.hasFacet(RbelMimeBodyFacet.class);
+  private static void parse(RbelElement element, RbelConversionExecutor context) {
+    var limits = MimeLimits.forMessage(element);
+    if (limits.isDepthExceeded(0)) {
+      RbelMimeTruncatedFacet.markTruncated(element, MimeLimits.NESTING_DEPTH);
+      return;
+    }
+    if (limits.isHeaderTooLarge(
+        MimeEntityLocator.locateEntity(element.getContent()).header().length())) {
+      RbelMimeTruncatedFacet.markTruncated(element, MimeLimits.HEADER_SIZE);
+      return;
+    }
+    if (EmailConfigurationKeys.MIME_PARSING_MODE.getValueOrDefault()
+        == RbelMimeParsingMode.STREAMING) {
+      new RbelMimeStreamingParser(context, limits).parse(element);
+    } else {
+      new Parser(context, limits)
+          .buildMimeMessageFacet(
+              element, parseEncodedMimeMessage(element.getContent().toInputStream()));
+    }
   }
 
-  private record Parser(RbelConversionExecutor context) {
+  private record Parser(RbelConversionExecutor context, MimeLimits limits) {
 
     @SneakyThrows
     private void buildMimeMessageFacet(RbelElement element, Entity message) {
       if (message.getHeader().iterator().hasNext()
           || !(message.getBody() instanceof SingleBody singleBody)
           || singleBody.size() > 0) {
-        parseEntity(element, message);
+        parseEntity(element, message, 0);
       }
     }
 
-    private RbelElement parseEntity(RbelElement element, Entity message) {
-      RbelMimeMessageFacet messageFacet = buildMessageFacet(element, message);
+    private RbelElement parseEntity(RbelElement element, Entity message, int depth) {
+      var layout = MimeEntityLocator.locateEntity(element.getContent());
+      if (limits.isDepthExceeded(depth)) {
+        return RbelMimeTruncatedFacet.markTruncated(element, MimeLimits.NESTING_DEPTH);
+      }
+      if (limits.isHeaderTooLarge(layout.header().length())) {
+        return RbelMimeTruncatedFacet.markTruncated(element, MimeLimits.HEADER_SIZE);
+      }
+      RbelMimeMessageFacet messageFacet = buildMessageFacet(element, layout, message, depth);
       element.addFacet(messageFacet);
       element.addFacet(new RbelRootFacet<>(messageFacet));
-      messageFacet
-          .header()
-          .getFacet(RbelMimeHeaderFacet.class)
-          .map(header -> header.get("content-type"))
-          .map(RbelElement::getRawStringContent)
-          .map(AUTHENTICATED_ENVELOPED_OR_SIGNED_DATA::matcher)
-          .filter(Matcher::matches)
-          .ifPresent(m -> context.convertElement(messageFacet.body()));
+      convertBodyIfSignedOrEncrypted(messageFacet, context);
       return element;
     }
 
-    @SneakyThrows
-    private RbelMimeMessageFacet buildMessageFacet(RbelElement element, Entity message) {
-      var body = parseBody(element, message.getBody());
-      var header = parseHeader(element, message.getHeader());
+    private RbelMimeMessageFacet buildMessageFacet(
+        RbelElement element, EntityLayout layout, Entity message, int depth) {
+      var body = parseBody(element, layout.body().of(element.getContent()), message, depth);
+      var header =
+          parseHeader(element, layout.header().of(element.getContent()), message.getHeader());
       return RbelMimeMessageFacet.builder().header(header).body(body).build();
     }
 
-    private RbelElement parseHeader(RbelElement element, Header messageHeader) {
+    private RbelElement parseHeader(
+        RbelElement element, RbelContent rawHeader, Header messageHeader) {
       var headerFacet = new RbelMimeHeaderFacet();
-      RbelElement headerElement =
-          new RbelElement(messageHeader.toString().getBytes(StandardCharsets.UTF_8), element);
+      RbelElement headerElement = createChildNode(element, rawHeader);
       messageHeader
           .getFieldsAsMap()
           .forEach(
@@ -140,96 +141,61 @@ public class RbelMimeConverter extends RbelConverterPlugin {
                       .map(Field::getBody)
                       .map(value -> RbelElement.wrap(headerElement, value))
                       .forEach(valueElement -> headerFacet.put(name, valueElement)));
+      if (messageHeader.getField(CONTENT_TYPE) instanceof ContentTypeField contentType) {
+        headerElement.addFacet(RbelMimeContentTypeFacet.of(contentType));
+      }
 
       return headerElement.addFacet(headerFacet).addFacet(new RbelRootFacet<>(headerFacet));
     }
 
     @SneakyThrows
-    private RbelElement parseBody(RbelElement element, Body body) {
+    private RbelElement parseBody(
+        RbelElement element, RbelContent rawBody, Entity entity, int depth) {
+      var body = entity.getBody();
       if (body instanceof Multipart multipart) {
-        return parseMultiPartBody(element, multipart);
-      } else if (body instanceof SingleBody singleBody) {
-        return parseSingleBody(element, singleBody);
+        return parseMultiPartBody(element, rawBody, multipart, boundaryOf(entity), depth);
+      } else if (body instanceof SingleBody) {
+        var transferEncoding = transferEncodingOf(entity);
+        return parseSingleBody(
+            element,
+            rawBody,
+            entity.getMimeType(),
+            entity.getCharset(),
+            transferEncoding,
+            limits.tryReserveDecoded(
+                MimeTransferDecoding.decodedSizeEstimate(rawBody, transferEncoding)),
+            context);
       } else if (body instanceof Message message) {
-        return parseEntity(createChildNode(element), message);
+        var messageContent =
+            MimeEntityLocator.isIdentityTransferEncoding(transferEncodingOf(entity))
+                ? rawBody
+                : serialize(message);
+        return parseEntity(createChildNode(element, messageContent), message, depth + 1);
       } else {
         throw new RbelConversionException( // NOSONAR
             "unknown message body type: " + body.getClass().getName());
       }
     }
 
-    @SneakyThrows
-    private RbelElement parseSingleBody(RbelElement element, SingleBody singleBody) {
-      var bytesAndContent = extractContent(singleBody);
-      var bytes = bytesAndContent.getLeft();
-      var content = bytesAndContent.getRight();
-
-      int bodyPosition = element.getContent().indexOf(bytes);
-      if (bodyPosition == -1) {
-        return context.convertElement(
-            createBodyElementAndFacet(element, RbelContent.of(bytes), content));
-      } else {
-        return context.convertElement(
-            createBodyElementAndFacet(
-                element,
-                element.getContent().subArray(bodyPosition, bodyPosition + bytes.length),
-                content));
-      }
-    }
-
-    private RbelElement createBodyElementAndFacet(
-        RbelElement element, RbelContent bytes, Supplier<String> content) {
-      var bodyFacet = new RbelMimeBodyFacet(content);
-
-      return RbelElement.builder()
-          .content(bytes)
-          .parentNode(element)
-          .build()
-          .addFacet(bodyFacet)
-          .addFacet(new RbelRootFacet<>(bodyFacet));
-    }
-
-    private Pair<byte[], Supplier<String>> extractContent(SingleBody singleBody) {
-      if (singleBody instanceof TextBody textBody) {
-        Supplier<String> content = () -> readContent(textBody);
-        return Pair.of(content.get().getBytes(), content);
-      } else {
-        Supplier<byte[]> bytes = () -> readBytes(singleBody);
-        Supplier<String> content =
-            () ->
-                Optional.ofNullable(
-                        singleBody.getParent().getHeader().getField(CONTENT_TRANSFER_ENCODING))
-                    .map(Field::getBody)
-                    .filter(TRANSFER_ENCODING_7_BIT::equals)
-                    .map(encoding -> new String(bytes.get()))
-                    .orElseGet(() -> Base64.getEncoder().encodeToString(bytes.get()));
-        return Pair.of(bytes.get(), content);
-      }
-    }
-
-    @SneakyThrows
-    private static String readContent(TextBody textBody) {
-      String content;
-      try (var reader = textBody.getReader();
-          var writer = new StringWriter()) {
-        reader.transferTo(writer);
-        content = writer.toString();
-      }
-      return content;
-    }
-
-    @SneakyThrows
-    private static byte[] readBytes(SingleBody singleBody) {
-      try (var in = singleBody.getInputStream()) {
-        return ByteArrayUtils.getBytesFrom(in::transferTo);
-      }
-    }
-
-    private RbelElement parseMultiPartBody(RbelElement parentElement, Multipart multipart) {
-      var element = createChildNode(parentElement);
-      var parts = parseMultipart(element, multipart);
-      var preamble = buildElementIfPresent(element, multipart.getPreamble());
-      var epilogue = buildElementIfPresent(element, multipart.getEpilogue());
+    private RbelElement parseMultiPartBody(
+        RbelElement parentElement,
+        RbelContent rawBody,
+        Multipart multipart,
+        String boundary,
+        int depth) {
+      var element = createChildNode(parentElement, rawBody);
+      var layout =
+          MimeEntityLocator.locateParts(rawBody, boundary)
+              .filter(located -> located.parts().size() == multipart.getCount());
+      var parts = parseMultipart(element, multipart, layout.map(MultipartLayout::parts), depth);
+      var preamble =
+          layout.isPresent()
+              ? buildElementIfNotEmpty(element, layout.get().preamble())
+              : buildElementIfPresent(element, multipart.getPreamble());
+      var epilogue =
+          layout.isPresent()
+              ? buildElementIfNotEmpty(element, layout.get().epilogue())
+              : buildElementIfPresent(element, multipart.getEpilogue());
       var bodyFacet =
           RbelMimeMultipartFacet.builder()
               .preamble(preamble)
@@ -239,28 +205,149 @@ public class RbelMimeConverter extends RbelConverterPlugin {
       return element.addFacet(bodyFacet);
     }
 
-    private RbelElement parseMultipart(RbelElement parentElement, Multipart multipart) {
+    private RbelElement parseMultipart(
+        RbelElement parentElement,
+        Multipart multipart,
+        Optional<List<Range>> partRanges,
+        int depth) {
       var element = createChildNode(parentElement);
-      var parts = new ArrayList<RbelElement>(multipart.getCount());
-      multipart.getBodyParts().stream()
-          .map(part -> parseEntity(new RbelElement(element), part))
-          .forEach(parts::add);
+      var bodyParts = multipart.getBodyParts();
+      var partCount = limits.allowedParts(bodyParts.size());
+      if (partCount < bodyParts.size()) {
+        RbelMimeTruncatedFacet.markTruncated(element, MimeLimits.PART_COUNT);
+      }
+      var parts = new ArrayList<RbelElement>(partCount);
+      for (int i = 0; i < partCount; i++) {
+        var part = bodyParts.get(i);
+        var partIndex = i;
+        var partContent =
+            partRanges
+                .map(ranges -> ranges.get(partIndex).of(element.getContent()))
+                .orElseGet(() -> serialize(part));
+        parts.add(parseEntity(createChildNode(element, partContent), part, depth + 1));
+      }
       return element.addFacet(new RbelListFacet(parts));
     }
+
+    private static String transferEncodingOf(Entity entity) {
+      return Optional.ofNullable(entity.getHeader().getField(CONTENT_TRANSFER_ENCODING))
+          .map(Field::getBody)
+          .orElse(null);
+    }
+
+    private static String boundaryOf(Entity entity) {
+      return entity.getHeader().getField(CONTENT_TYPE) instanceof ContentTypeField contentType
+          ? contentType.getBoundary()
+          : null;
+    }
+
+    /** Fallback for entities whose position could not be located in the raw content. */
+    @SneakyThrows
+    private static RbelContent serialize(Entity entity) {
+      return RbelContent.of(
+          ByteArrayUtils.getBytesFrom(out -> new DefaultMessageWriter().writeEntity(entity, out)));
+    }
   }
 
   @SneakyThrows
   public static Message parseMimeMessage(InputStream input) {
     final DefaultMessageBuilder messageBuilder = new DefaultMessageBuilder();
-    messageBuilder.setMimeEntityConfig(new MimeConfig.Builder().setMaxLineLen(10_000).build());
+    messageBuilder.setMimeEntityConfig(buildMimeConfig());
+    return messageBuilder.parseMessage(input);
+  }
+
+  /** Parses a message without decoding its bodies, see {@link MimeTransferDecoding}. */
+  @SneakyThrows
+  private static Message parseEncodedMimeMessage(InputStream input) {
+    final DefaultMessageBuilder messageBuilder = new DefaultMessageBuilder();
+    messageBuilder.setMimeEntityConfig(buildMimeConfig());
+    messageBuilder.setContentDecoding(false);
     return messageBuilder.parseMessage(input);
   }
 
-  private static RbelElement createChildNode(RbelElement element) {
-    return new RbelElement(null, element.getContent(), element, Optional.empty());
+  /** The header limits are enforced by {@link MimeLimits}, based on the located header blocks. */
+  static MimeConfig buildMimeConfig() {
+    return new MimeConfig.Builder()
+        .setMaxLineLen(10_000)
+        .setMaxHeaderLen(-1)
+        .setMaxHeaderCount(-1)
+        .build();
+  }
+
+  /**
+   * Builds the element of a body which is neither a multipart nor a message. Bodies exceeding the
+   * limit for decoded bytes ({@code withinDecodedLimit} is not set) are kept transfer encoded and
+   * are not converted any further.
+   */
+  static RbelElement parseSingleBody(
+      RbelElement element,
+      RbelContent rawBody,
+      String mimeType,
+      String charset,
+      String transferEncoding,
+      boolean withinDecodedLimit,
+      RbelConversionExecutor context) {
+    if (!withinDecodedLimit) {
+      return RbelMimeTruncatedFacet.markTruncated(
+          createBodyElementAndFacet(
+              element,
+              rawBody,
+              rawBody,
+              () -> new String(rawBody.toByteArray(), StandardCharsets.US_ASCII)),
+          MimeLimits.DECODED_SIZE);
+    }
+    // mime4j keeps the body encoded, it is decoded here exactly once: the decoded bytes are the
+    // content the nested converters work on, so only the textual value can be deferred
+    var content = MimeTransferDecoding.decode(rawBody, transferEncoding);
+    return context.convertElement(
+        createBodyElementAndFacet(
+            element,
+            content,
+            rawBody,
+            MimeTransferDecoding.displayValue(
+                mimeType, charset, transferEncoding, rawBody, content)));
+  }
+
+  static void convertBodyIfSignedOrEncrypted(
+      RbelMimeMessageFacet messageFacet, RbelConversionExecutor context) {
+    messageFacet
+        .header()
+        .getFacet(RbelMimeContentTypeFacet.class)
+        .flatMap(RbelMimeRoutingFacet::targetFor)
+        .ifPresent(
+            target ->
+                context.convertElement(
+                    RbelMimeRoutingFacet.routeTo(messageFacet.body(), target)));
+  }
+
+  static RbelElement createBodyElementAndFacet(
+      RbelElement element, RbelContent bytes, RbelContent encoded, Supplier<String> content) {
+    var bodyFacet = new RbelMimeBodyFacet(content, encoded);
+
+    return RbelElement.builder()
+        .content(bytes)
+        .parentNode(element)
+        .build()
+        .addFacet(bodyFacet)
+        .addFacet(new RbelRootFacet<>(bodyFacet));
+  }
+
+  static RbelElement createChildNode(RbelElement element) {
+    return createChildNode(element, element.getContent());
+  }
+
+  static RbelElement createChildNode(RbelElement element, RbelContent content) {
+    return new RbelElement(null, content, element, Optional.empty());
+  }
+
+  static RbelElement buildElementIfNotEmpty(RbelElement element, @Nullable Range range) {
+    return Optional.ofNullable(range)
+        .filter(r -> !r.isEmpty())
+        .map(r -> createChildNode(element, r.of(element.getContent())))
+        .orElse(null);
   }
 
-  private static RbelElement buildElementIfPresent(RbelElement element, String value) {
+  static RbelElement buildElementIfPresent(RbelElement element, String value) {
     return Optional.ofNullable(value).map(s -> RbelElement.wrap(element, s)).orElse(null);
   }
 }
@@ -0,0 +1,88 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.RbelMultiMap;
+import de.gematik.rbellogger.data.core.RbelFacet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Marks an element as content for exactly one of the mail converters. The element is routed by the
+ * converter creating it: mail bodies of POP3 and SMTP as well as decrypted and signed contents go
+ * to the MIME converter, MIME bodies go to the converter responsible for their media type. The
+ * converters only have to check for this facet instead of probing the parents of every element.
+ *
+ * @param target the converter responsible for the element
+ */
+public record RbelMimeRoutingFacet(Target target) implements RbelFacet {
+
+  public enum Target {
+    /** A complete MIME message, parsed by {@link RbelMimeConverter}. */
+    MIME_MESSAGE,
+    /** A CMS signed-data structure. */
+    SIGNED_DATA,
+    /** A CMS authenticated-enveloped-data structure. */
+    AUTHENTICATED_ENVELOPED_DATA
+  }
+
+  private static final Map<String, Map<String, Target>> TARGETS_BY_MIME_AND_SMIME_TYPE =
+      Map.of(
+          RbelMimeConverter.PKCS7_MIME,
+          Map.of(
+              RbelMimeConverter.SMIME_SIGNED_DATA, Target.SIGNED_DATA,
+              RbelMimeConverter.SMIME_AUTHENTICATED_ENVELOPED_DATA,
+                  Target.AUTHENTICATED_ENVELOPED_DATA));
+
+  /** Routes the element to the given target, an existing route is replaced. */
+  public static RbelElement routeTo(RbelElement element, Target target) {
+    if (!isRoutedTo(element, target)) {
+      element.removeFacetsOfType(RbelMimeRoutingFacet.class);
+      element.addFacet(new RbelMimeRoutingFacet(target));
+    }
+    return element;
+  }
+
+  public static boolean isRoutedTo(RbelElement element, Target target) {
+    return element
+        .getFacet(RbelMimeRoutingFacet.class)
+        .filter(routing -> routing.target == target)
+        .isPresent();
+  }
+
+  /** Looks up the target for a MIME body with the given Content-Type. */
+  static Optional<Target> targetFor(RbelMimeContentTypeFacet contentType) {
+    return Optional.ofNullable(
+            TARGETS_BY_MIME_AND_SMIME_TYPE.get(contentType.mimeType().toLowerCase(Locale.ROOT)))
+        .flatMap(
+            targets ->
+                contentType
+                    .parameter(RbelMimeContentTypeFacet.SMIME_TYPE)
+                    .map(smimeType -> targets.get(smimeType.toLowerCase(Locale.ROOT))));
+  }
+
+  @Override
+  public RbelMultiMap<RbelElement> getChildElements() {
+    return new RbelMultiMap<>();
+  }
+}
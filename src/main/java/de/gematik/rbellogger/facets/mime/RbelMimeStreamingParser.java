@@ -0,0 +1,403 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.RbelConversionExecutor;
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.core.RbelListFacet;
+import de.gematik.rbellogger.data.core.RbelRootFacet;
+import de.gematik.rbellogger.facets.mime.MimeEntityLocator.EntityLayout;
+import de.gematik.rbellogger.facets.mime.MimeEntityLocator.MultipartLayout;
+import de.gematik.rbellogger.util.RbelContent;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.james.mime4j.stream.EntityState;
+import org.apache.james.mime4j.stream.Field;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+
+/**
+ * Builds the MIME facets of an element while reading the mime4j token stream. In contrast to the
+ * DOM based parsing no intermediate mime4j message is created: every header block is turned into
+ * elements as soon as it is complete and bodies without transfer encoding are never copied, they
+ * are referenced at their position in the original content.
+ *
+ * <p>The positions are located by {@link MimeEntityLocator} and checked against the token stream
+ * as it is read: the number of parts of every multipart and the length of every body have to
+ * match. Only if they don't, which takes a malformed message, the message is parsed a second time
+ * without referencing positions. Bodies which can't be referenced, e.g. those of a transfer
+ * encoded nested message, are read into memory, but not beyond the limit for decoded bytes.
+ */
+@RequiredArgsConstructor
+@Slf4j
+class RbelMimeStreamingParser {
+
+  private static final Set<EntityState> ENTITY_BOUNDARIES =
+      EnumSet.of(
+          EntityState.T_START_MESSAGE,
+          EntityState.T_START_BODYPART,
+          EntityState.T_END_BODYPART,
+          EntityState.T_END_MESSAGE);
+
+  private final RbelConversionExecutor context;
+  private final MimeLimits limits;
+  private final Deque<Entity> entities = new ArrayDeque<>();
+
+  void parse(RbelElement element) {
+    if (element.getContent().isEmpty()) {
+      return;
+    }
+    try {
+      parse(element, element.getContent());
+    } catch (LayoutMismatchException e) {
+      log.debug("Located MIME layout does not match the token stream, parsing without positions");
+      new RbelMimeStreamingParser(context, limits.withoutReservations()).parse(element, null);
+    }
+  }
+
+  /**
+   * @param locatableContent the content in which the entities are located, {@code null} to parse
+   *     without referencing positions
+   */
+  @SneakyThrows
+  private void parse(RbelElement element, @Nullable RbelContent locatableContent) {
+    var stream = new MimeTokenStream(RbelMimeConverter.buildMimeConfig());
+    stream.parse(element.getContent().toInputStream());
+    for (var state = stream.getState();
+        state != EntityState.T_END_OF_STREAM;
+        state = stream.next()) {
+      if (isInSkippedEntity() && !ENTITY_BOUNDARIES.contains(state)) {
+        continue;
+      }
+      switch (state) {
+        case T_START_MESSAGE -> startMessage(element, locatableContent);
+        case T_START_BODYPART -> startBodyPart();
+        case T_FIELD -> entities.element().fields.add(stream.getField());
+        case T_END_HEADER -> endHeader();
+        case T_BODY -> entities.element().body = parseSingleBody(entities.element(), stream);
+        case T_START_MULTIPART ->
+            entities.element().startMultipart(stream.getBodyDescriptor().getBoundary());
+        case T_PREAMBLE -> entities.element().preamble = readUnlocatedText(stream);
+        case T_EPILOGUE -> entities.element().epilogue = readUnlocatedText(stream);
+        case T_END_MULTIPART -> entities.element().endMultipart();
+        case T_END_BODYPART, T_END_MESSAGE -> endEntity();
+        default -> {
+          // T_START_HEADER and T_RAW_ENTITY carry no information we need
+        }
+      }
+    }
+  }
+
+  private boolean isInSkippedEntity() {
+    return !entities.isEmpty() && entities.element().skipped;
+  }
+
+  private void startMessage(RbelElement root, @Nullable RbelContent locatableContent) {
+    if (entities.isEmpty()) {
+      entities.push(new Entity(root, locatableContent, false));
+    } else if (isInSkippedEntity()) {
+      entities.push(Entity.skipped(null, false));
+    } else {
+      var parent = entities.element();
+      var content = parent.isBodyReferencable() ? parent.rawBody() : null;
+      parent.body =
+          content != null
+              ? RbelMimeConverter.createChildNode(parent.element, content)
+              : RbelMimeConverter.createChildNode(parent.element);
+      pushUnlessTooDeep(parent.body, content, false);
+    }
+  }
+
+  private void startBodyPart() {
+    if (isInSkippedEntity()) {
+      entities.push(Entity.skipped(null, true));
+      return;
+    }
+    var parent = entities.element();
+    if (++parent.startedParts > parent.locatedPartCount()) {
+      throw new LayoutMismatchException();
+    }
+    if (limits.isPartCountExceeded(parent.startedParts)) {
+      RbelMimeTruncatedFacet.markTruncated(parent.partsElement, MimeLimits.PART_COUNT);
+      entities.push(Entity.skipped(null, true));
+      return;
+    }
+    var content = parent.nextPartContent();
+    var part =
+        content != null
+            ? RbelMimeConverter.createChildNode(parent.partsElement, content)
+            : new RbelElement(null, parent.partsElement);
+    pushUnlessTooDeep(part, content, true);
+  }
+
+  private void pushUnlessTooDeep(
+      RbelElement element, @Nullable RbelContent content, boolean bodyPart) {
+    if (limits.isDepthExceeded(entities.size())) {
+      RbelMimeTruncatedFacet.markTruncated(element, MimeLimits.NESTING_DEPTH);
+      entities.push(Entity.skipped(element, bodyPart));
+    } else {
+      entities.push(new Entity(element, content, bodyPart));
+    }
+  }
+
+  private void endHeader() {
+    var entity = entities.element();
+    if (limits.isHeaderTooLarge(entity.headerLength())) {
+      RbelMimeTruncatedFacet.markTruncated(entity.element, MimeLimits.HEADER_SIZE);
+      entity.skipped = true;
+    } else {
+      entity.buildHeader();
+    }
+  }
+
+  private void endEntity() {
+    var entity = entities.pop();
+    if (entity.skipped) {
+      // truncated entities are kept as unparsed elements, everything below them is dropped
+      if (entity.bodyPart && entity.element != null && !isInSkippedEntity()) {
+        entities.element().parts.add(entity.element);
+      }
+      return;
+    }
+    if (entity.header == null || entity.body == null) {
+      return;
+    }
+    var messageFacet =
+        RbelMimeMessageFacet.builder().header(entity.header).body(entity.body).build();
+    entity.element.addFacet(messageFacet);
+    entity.element.addFacet(new RbelRootFacet<>(messageFacet));
+    RbelMimeConverter.convertBodyIfSignedOrEncrypted(messageFacet, context);
+    if (entity.bodyPart) {
+      entities.element().parts.add(entity.element);
+    }
+  }
+
+  @SneakyThrows
+  private RbelElement parseSingleBody(Entity entity, MimeTokenStream stream) {
+    RbelContent rawBody;
+    try (var in = stream.getInputStream()) {
+      if (entity.layout != null) {
+        rawBody = entity.rawBody();
+        // mime4j reads the body to find its end anyway, counting it costs no further pass
+        if (in.transferTo(OutputStream.nullOutputStream()) != rawBody.size()) {
+          throw new LayoutMismatchException();
+        }
+      } else {
+        var bufferedBody = readWithinDecodedLimit(in);
+        if (bufferedBody.isEmpty()) {
+          return RbelMimeTruncatedFacet.markTruncated(
+              RbelMimeConverter.createBodyElementAndFacet(
+                  entity.element, RbelContent.of(new byte[0]), null, () -> ""),
+              MimeLimits.DECODED_SIZE);
+        }
+        rawBody = bufferedBody.get();
+      }
+    }
+    var descriptor = stream.getBodyDescriptor();
+    return RbelMimeConverter.parseSingleBody(
+        entity.element,
+        rawBody,
+        descriptor.getMimeType(),
+        descriptor.getCharset(),
+        entity.transferEncoding(),
+        limits.tryReserveDecoded(
+            MimeTransferDecoding.decodedSizeEstimate(rawBody, entity.transferEncoding())),
+        context);
+  }
+
+  /**
+   * Reads a body which can't be referenced in the content. Its raw size is held against the
+   * remaining decoded bytes, a larger body is skipped instead of being buffered.
+   */
+  @SneakyThrows
+  private Optional<RbelContent> readWithinDecodedLimit(InputStream in) {
+    var remaining = limits.remainingDecoded();
+    if (remaining >= Integer.MAX_VALUE) {
+      return Optional.of(RbelContent.of(in.readAllBytes()));
+    }
+    var bytes = in.readNBytes((int) remaining + 1);
+    if (bytes.length > remaining) {
+      in.transferTo(OutputStream.nullOutputStream());
+      return Optional.empty();
+    }
+    return Optional.of(RbelContent.of(bytes));
+  }
+
+  /** Reads a preamble or epilogue, unless the multipart layout already references it. */
+  @SneakyThrows
+  private String readUnlocatedText(MimeTokenStream stream) {
+    if (entities.element().multipartLayout != null) {
+      return null;
+    }
+    try (var in = stream.getInputStream()) {
+      return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+    }
+  }
+
+  /** Signals that the located positions of the entities disagree with the token stream. */
+  private static final class LayoutMismatchException extends RuntimeException {
+    private LayoutMismatchException() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final class Entity {
+    @Nullable private final RbelElement element;
+
+    /** The raw bytes of this entity, {@code null} if its position could not be located. */
+    @Nullable private final RbelContent content;
+
+    @Nullable private final EntityLayout layout;
+    private final boolean bodyPart;
+    private final List<Field> fields = new ArrayList<>();
+    private RbelElement header;
+    private RbelElement body;
+    private RbelElement partsElement;
+    private List<RbelElement> parts;
+    @Nullable private MultipartLayout multipartLayout;
+    private int startedParts;
+    private String preamble;
+    private String epilogue;
+
+    /** Set for entities which are not parsed because of a limit and for everything below them. */
+    private boolean skipped;
+
+    private Entity(RbelElement element, @Nullable RbelContent content, boolean bodyPart) {
+      this.element = element;
+      this.content = content;
+      this.layout = content != null ? MimeEntityLocator.locateEntity(content) : null;
+      this.bodyPart = bodyPart;
+    }
+
+    private static Entity skipped(@Nullable RbelElement element, boolean bodyPart) {
+      var entity = new Entity(element, null, bodyPart);
+      entity.skipped = true;
+      return entity;
+    }
+
+    private long headerLength() {
+      return layout != null
+          ? layout.header().length()
+          : fields.stream().mapToLong(field -> field.getRaw().length()).sum();
+    }
+
+    private RbelContent rawBody() {
+      return layout.body().of(content);
+    }
+
+    private boolean isBodyReferencable() {
+      return layout != null && MimeEntityLocator.isIdentityTransferEncoding(transferEncoding());
+    }
+
+    private String transferEncoding() {
+      return findField(RbelMimeConverter.CONTENT_TRANSFER_ENCODING)
+          .map(Field::getBody)
+          .orElse(null);
+    }
+
+    private Optional<Field> findField(String name) {
+      return fields.stream().filter(field -> field.getName().equalsIgnoreCase(name)).findFirst();
+    }
+
+    private void buildHeader() {
+      var headerFacet = new RbelMimeHeaderFacet();
+      header =
+          layout != null
+              ? RbelMimeConverter.createChildNode(element, layout.header().of(content))
+              : new RbelElement(headerText().getBytes(StandardCharsets.UTF_8), element);
+      fields.forEach(
+          field ->
+              headerFacet.put(
+                  field.getName().toLowerCase(Locale.ROOT),
+                  RbelElement.wrap(header, field.getBody())));
+      findField(RbelMimeConverter.CONTENT_TYPE)
+          .map(RbelMimeContentTypeFacet::parse)
+          .ifPresent(header::addFacet);
+      header.addFacet(headerFacet).addFacet(new RbelRootFacet<>(headerFacet));
+    }
+
+    private String headerText() {
+      var text = new StringBuilder();
+      fields.forEach(
+          field ->
+              text.append(field.getName())
+                  .append(": ")
+                  .append(field.getBody())
+                  .append("\r\n"));
+      return text.toString();
+    }
+
+    private void startMultipart(String boundary) {
+      if (layout != null) {
+        body = RbelMimeConverter.createChildNode(element, rawBody());
+        multipartLayout = MimeEntityLocator.locateParts(body.getContent(), boundary).orElse(null);
+      } else {
+        body = RbelMimeConverter.createChildNode(element);
+      }
+      partsElement = RbelMimeConverter.createChildNode(body);
+      parts = new ArrayList<>();
+    }
+
+    /** The number of parts the located layout holds, unbounded if there is no layout. */
+    private int locatedPartCount() {
+      return multipartLayout != null ? multipartLayout.parts().size() : Integer.MAX_VALUE;
+    }
+
+    @Nullable
+    private RbelContent nextPartContent() {
+      if (multipartLayout == null) {
+        return null;
+      }
+      return multipartLayout.parts().get(startedParts - 1).of(body.getContent());
+    }
+
+    private void endMultipart() {
+      if (multipartLayout != null && startedParts < multipartLayout.parts().size()) {
+        throw new LayoutMismatchException();
+      }
+      partsElement.addFacet(new RbelListFacet(parts));
+      body.addFacet(
+          RbelMimeMultipartFacet.builder()
+              .preamble(
+                  multipartLayout != null
+                      ? RbelMimeConverter.buildElementIfNotEmpty(body, multipartLayout.preamble())
+                      : RbelMimeConverter.buildElementIfPresent(body, preamble))
+              .parts(partsElement)
+              .epilogue(
+                  multipartLayout != null
+                      ? RbelMimeConverter.buildElementIfNotEmpty(body, multipartLayout.epilogue())
+                      : RbelMimeConverter.buildElementIfPresent(body, epilogue))
+              .build());
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.RbelMultiMap;
+import de.gematik.rbellogger.data.core.RbelFacet;
+
+/**
+ * Marks an element whose content was not (completely) parsed because one of the configured limits
+ * was reached.
+ *
+ * @param reason the limit which was reached
+ */
+public record RbelMimeTruncatedFacet(String reason) implements RbelFacet {
+
+  static RbelElement markTruncated(RbelElement element, String reason) {
+    if (!element.hasFacet(RbelMimeTruncatedFacet.class)) {
+      element.addFacet(new RbelMimeTruncatedFacet(reason));
+    }
+    return element;
+  }
+
+  @Override
+  public RbelMultiMap<RbelElement> getChildElements() {
+    return new RbelMultiMap<>();
+  }
+}
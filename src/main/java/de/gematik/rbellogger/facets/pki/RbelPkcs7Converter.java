@@ -26,13 +26,12 @@ import de.gematik.rbellogger.converter.ConverterInfo;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelListFacet;
 import de.gematik.rbellogger.exceptions.RbelConversionException;
-import de.gematik.rbellogger.facets.mime.RbelMimeHeaderFacet;
-import de.gematik.rbellogger.facets.mime.RbelMimeMessageFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet.Target;
 import de.gematik.rbellogger.util.ByteArrayUtils;
 import de.gematik.rbellogger.util.EmailConversionUtils;
 import eu.europa.esig.dss.spi.DSSUtils;
 import java.io.IOException;
-import java.util.Optional;
 import lombok.SneakyThrows;
 import org.bouncycastle.cms.CMSException;
 import org.bouncycastle.cms.CMSSignedData;
@@ -46,14 +45,7 @@ public class RbelPkcs7Converter extends RbelConverterPlugin {
   @Override
   @SneakyThrows
   public void consumeElement(RbelElement rbelElement, RbelConversionExecutor converter) {
-    if (Optional.ofNullable(rbelElement.getParentNode())
-        .flatMap(node -> node.getFacet(RbelMimeMessageFacet.class))
-        .map(RbelMimeMessageFacet::header)
-        .flatMap(header -> header.getFacet(RbelMimeHeaderFacet.class))
-        .map(header -> header.get("content-type"))
-        .map(RbelElement::getRawStringContent)
-        .filter(contentType -> contentType.contains("smime-type=signed-data"))
-        .isPresent()) {
+    if (RbelMimeRoutingFacet.isRoutedTo(rbelElement, Target.SIGNED_DATA)) {
       try {
         RbelPkcs7Facet facet = parseSignedMessage(rbelElement, converter);
         rbelElement.addFacet(facet);
@@ -66,7 +58,10 @@ public class RbelPkcs7Converter extends RbelConverterPlugin {
   private RbelPkcs7Facet parseSignedMessage(RbelElement element, RbelConversionExecutor context)
       throws CMSException, IOException {
     var signedData = DSSUtils.toCMSSignedData(element.getContent().toInputStream());
-    var signedElement = context.convertElement(extractSignedContent(signedData), element);
+    var signedElement =
+        context.convertElement(
+            RbelMimeRoutingFacet.routeTo(
+                new RbelElement(extractSignedContent(signedData), element), Target.MIME_MESSAGE));
     var signerInfos = buildSignerInfos(element, context, signedData.getSignerInfos());
     return RbelPkcs7Facet.builder().signed(signedElement).signerInfos(signerInfos).build();
   }
@@ -29,12 +29,15 @@ import de.gematik.rbellogger.converter.ConverterInfo;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelRequestFacet;
 import de.gematik.rbellogger.data.core.RbelResponseFacet;
+import de.gematik.rbellogger.util.MailCommandRecognizer;
+import de.gematik.rbellogger.util.MailPipelineFraming;
+import de.gematik.rbellogger.util.MailSession;
+import de.gematik.rbellogger.util.MailSession.Protocol;
+import de.gematik.rbellogger.util.MailSessions;
 import de.gematik.rbellogger.util.RbelContent;
 
 import java.nio.charset.StandardCharsets;
-import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.StringTokenizer;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
@@ -43,6 +46,12 @@ import org.apache.commons.lang3.tuple.Pair;
 @Slf4j
 public class RbelPop3CommandConverter extends RbelConverterPlugin {
 
+  private static final MailCommandRecognizer<RbelPop3Command> COMMAND_RECOGNIZER =
+      new MailCommandRecognizer<>(RbelPop3Command.class, RbelPop3Command.MAX_LENGTH + 1);
+
+  private final MailPipelineFraming pipelineFraming =
+      new MailPipelineFraming(this::isSingleLineCommand);
+
   @Override
   public RbelConversionPhase getPhase() {
     return RbelConversionPhase.PROTOCOL_PARSING;
@@ -50,44 +59,101 @@ public class RbelPop3CommandConverter extends RbelConverterPlugin {
 
   @Override
   public void consumeElement(final RbelElement element, final RbelConversionExecutor context) {
-    buildPop3CommandFacet(element, context)
+    var pipelinedFrame = pipelineFraming.nextFrame(element);
+    if (pipelinedFrame.isPresent()) {
+      convertPipelinedCommand(element, pipelinedFrame.get(), context);
+      return;
+    }
+    Optional.of(element.getContent())
+        .filter(c -> c.size() > 4)
+        .flatMap(this::parseCommand)
+        .ifPresent(command -> convertCommand(element, command, context));
+  }
+
+  private void convertCommand(
+      RbelElement element, RbelPop3Command command, RbelConversionExecutor context) {
+    var sessions = MailSessions.of(context);
+    var session = sessions.find(element);
+    if (!canBeParsedAsPop3Command(command, element, session, context)) {
+      return;
+    }
+    buildRbelPop3CommandFacet(element, command)
         .ifPresent(
-            pair -> {
-              var facet = pair.getLeft();
-              var length = pair.getRight();
-              element.addFacet(facet);
-              element.setUsedBytes(length);
-              element.addFacet(
-                  new RbelRequestFacet(facet.getCommand().getRawStringContent(), true));
-            });
+            pair ->
+                addCommandFacets(
+                    element, command, pair.getLeft(), pair.getRight(), sessions, session, false));
   }
 
-  private Optional<Pair<RbelPop3CommandFacet, Integer>> buildPop3CommandFacet(
-      RbelElement element, RbelConversionExecutor context) {
-    return Optional.of(element.getContent())
-        .filter(c -> c.size() > 4)
-        .flatMap(this::parseCommand)
-        .flatMap(command -> buildRbelPop3CommandFacet(element, command, context));
+  private void convertPipelinedCommand(
+      RbelElement element, MailPipelineFraming.Frame frame, RbelConversionExecutor context) {
+    var sessions = MailSessions.of(context);
+    var commandEndIndex = frame.length() - CRLF_BYTES.length;
+    parseCommand(element.getContent().subArray(0, frame.length()))
+        .ifPresent(
+            command ->
+                addCommandFacets(
+                    element,
+                    command,
+                    buildRbelPop3CommandFacet(element, command, commandEndIndex),
+                    frame.length(),
+                    sessions,
+                    sessions.find(element),
+                    true));
+  }
+
+  private void addCommandFacets(
+      RbelElement element,
+      RbelPop3Command command,
+      RbelPop3CommandFacet facet,
+      int length,
+      MailSessions sessions,
+      Optional<MailSession> session,
+      boolean isPipelined) {
+    element.addFacet(facet);
+    element.setUsedBytes(length);
+    element.addFacet(new RbelRequestFacet(facet.getCommand().getRawStringContent(), true));
+    pipelineFraming.recordCommand(element, length, isPipelined);
+    sessions.recordCommand(session, element, Protocol.POP3, command == RbelPop3Command.QUIT);
+  }
+
+  /**
+   * Whether the line holds a complete command which may be part of a pipelined batch (RFC 2449).
+   * AUTH is excluded, its exchange continues with further client lines.
+   */
+  private boolean isSingleLineCommand(RbelContent line) {
+    return Character.isLetter(line.get(0))
+        && parseCommand(line).filter(command -> command != RbelPop3Command.AUTH).isPresent();
+  }
+
+  private boolean canBeParsedAsPop3Command(
+      RbelPop3Command command,
+      RbelElement element,
+      Optional<MailSession> session,
+      RbelConversionExecutor context) {
+    if (command == RbelPop3Command.CAPA) {
+      return true;
+    }
+    if (session.isPresent()) {
+      return session.get().getProtocol() == Protocol.POP3;
+    }
+    // only the first command of a connection is checked against the message before it
+    var message =
+        getPreviousMessage(element, context)
+            .filter(e -> e.hasFacet(RbelRequestFacet.class) || e.hasFacet(RbelResponseFacet.class));
+    if (message.isPresent()
+        && !(message.get().hasFacet(RbelPop3CommandFacet.class)
+            || message.get().hasFacet(RbelPop3ResponseFacet.class))) {
+      log.debug(
+          "Previous message {} is not a POP3 message, skipping POP3 command parsing",
+          message.get().getUuid());
+      return false;
+    }
+    return true;
   }
 
   private Optional<Pair<RbelPop3CommandFacet, Integer>> buildRbelPop3CommandFacet(
-      RbelElement element, RbelPop3Command command, RbelConversionExecutor context) {
+      RbelElement element, RbelPop3Command command) {
     var commandBytes = command.name().getBytes(StandardCharsets.UTF_8);
-    if (command != RbelPop3Command.CAPA) {
-      var previousMessage =
-          getPreviousMessage(element, context)
-              .filter(e -> e.hasFacet(RbelRequestFacet.class) || e.hasFacet(RbelResponseFacet.class));
-      if (previousMessage.isPresent()) {
-        var message = previousMessage.get();
-        if (!(message.hasFacet(RbelPop3CommandFacet.class)
-            || message.hasFacet(RbelPop3ResponseFacet.class))) {
-          log.debug(
-              "Previous message {} is not a POP3 message, skipping POP3 command parsing",
-              message.getUuid());
-          return Optional.empty();
-        }
-      }
-    }
     int commandEndIndex = element.getContent().indexOf(CRLF_BYTES);
     if (commandEndIndex == -1) {
       return Optional.empty();
@@ -107,23 +173,20 @@ public class RbelPop3CommandConverter extends RbelConverterPlugin {
     }
     var length = commandEndIndex + CRLF_BYTES.length;
     return Optional.of(
-        Pair.of(
-            RbelPop3CommandFacet.builder()
-                .command(RbelElement.wrap(commandBytes, element, command))
-                .arguments(parseArguments(element, commandBytes.length + 1, commandEndIndex))
-                .build(),
-            length));
+        Pair.of(buildRbelPop3CommandFacet(element, command, commandEndIndex), length));
+  }
+
+  private RbelPop3CommandFacet buildRbelPop3CommandFacet(
+      RbelElement element, RbelPop3Command command, int commandEndIndex) {
+    var commandBytes = command.name().getBytes(StandardCharsets.UTF_8);
+    return RbelPop3CommandFacet.builder()
+        .command(RbelElement.wrap(commandBytes, element, command))
+        .arguments(parseArguments(element, commandBytes.length + 1, commandEndIndex))
+        .build();
   }
 
   private Optional<RbelPop3Command> parseCommand(RbelContent c) {
-    try {
-      var shortPrefix =
-          new String(c.toByteArray(0, RbelPop3Command.MAX_LENGTH + 1), StandardCharsets.UTF_8);
-      var command = new StringTokenizer(shortPrefix).nextToken();
-      return Optional.of(RbelPop3Command.fromStringIgnoringCase(command));
-    } catch (IllegalArgumentException | NoSuchElementException | IndexOutOfBoundsException e) {
-      return Optional.empty();
-    }
+    return COMMAND_RECOGNIZER.recognize(c);
   }
 
   private RbelElement parseArguments(
@@ -0,0 +1,265 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.pop3;
+
+import static j2html.TagCreator.*;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.RbelMultiMap;
+import de.gematik.rbellogger.data.core.RbelFacet;
+import de.gematik.rbellogger.renderer.RbelHtmlFacetRenderer;
+import de.gematik.rbellogger.renderer.RbelHtmlRenderer;
+import de.gematik.rbellogger.renderer.RbelHtmlRenderingToolkit;
+import de.gematik.rbellogger.util.MailLineIndex;
+import de.gematik.rbellogger.util.RbelContent;
+import j2html.tags.ContainerTag;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.IntStream;
+
+/**
+ * The messages of a mailbox as listed by LIST (octet sizes) or UIDL (unique ids). The entries are
+ * kept in arrays ordered by message number, so a mailbox with thousands of messages does not need
+ * an element per entry.
+ */
+public final class RbelPop3MailboxIndexFacet implements RbelFacet {
+
+  static {
+    RbelHtmlRenderer.registerFacetRenderer(
+        new RbelHtmlFacetRenderer() {
+          @Override
+          public boolean checkForRendering(RbelElement element) {
+            return element.hasFacet(RbelPop3MailboxIndexFacet.class);
+          }
+
+          @Override
+          public ContainerTag performRendering(
+              RbelElement element,
+              Optional<String> key,
+              RbelHtmlRenderingToolkit renderingToolkit) {
+            final RbelPop3MailboxIndexFacet facet =
+                element.getFacetOrFail(RbelPop3MailboxIndexFacet.class);
+            return div(
+                h2().withClass("title").withText("POP3 Mailbox Index"),
+                p().with(b().withText("Messages: "))
+                    .withText(String.valueOf(facet.getMessageCount())),
+                each(
+                    IntStream.range(0, Math.min(facet.getMessageCount(), MAX_RENDERED_ENTRIES))
+                        .boxed()
+                        .toList(),
+                    index -> p().withText(facet.describeEntry(index))),
+                iff(
+                    facet.getMessageCount() > MAX_RENDERED_ENTRIES,
+                    p().withText(
+                            "... and "
+                                + (facet.getMessageCount() - MAX_RENDERED_ENTRIES)
+                                + " more")),
+                br());
+          }
+        });
+  }
+
+  private static final long UNKNOWN_SIZE = -1;
+
+  /** Only the first entries are rendered, a mailbox may list thousands of messages. */
+  private static final int MAX_RENDERED_ENTRIES = 100;
+
+  private final int[] messageNumbers;
+  private final long[] sizes;
+  private final String[] uids;
+
+  private RbelPop3MailboxIndexFacet(int[] messageNumbers, long[] sizes, String[] uids) {
+    this.messageNumbers = messageNumbers;
+    this.sizes = sizes;
+    this.uids = uids;
+  }
+
+  /**
+   * Parses the listing of a LIST or UIDL response, either the lines of a multi-line response or
+   * the header of a single-line response for one message. The entries are read from the content
+   * directly into the arrays of the index.
+   */
+  static Optional<RbelPop3MailboxIndexFacet> parse(MailLineIndex lines, boolean isUidListing) {
+    boolean isMultiLine = lines.lineCount() > 1;
+    int firstLine = isMultiLine ? 1 : 0;
+    // the last line of a multi-line response is the terminating dot
+    int endLine = isMultiLine ? lines.lineCount() - 1 : 1;
+    var listing = new Listing(Math.max(0, endLine - firstLine));
+    for (int line = firstLine; line < endLine; line++) {
+      var entry = lines.lineWithoutCrlf(line);
+      int numberStart = skipBlanks(entry, 0);
+      if (!isMultiLine) {
+        // the status of a single-line response precedes the entry
+        numberStart = skipBlanks(entry, endOfToken(entry, numberStart));
+      }
+      int numberEnd = endOfToken(entry, numberStart);
+      int valueStart = skipBlanks(entry, numberEnd);
+      int valueEnd = endOfToken(entry, valueStart);
+      long number = parseNumber(entry, numberStart, numberEnd);
+      if (number >= 0 && number <= Integer.MAX_VALUE && valueEnd > valueStart) {
+        var value = entry.toByteArray(valueStart, valueEnd);
+        if (isUidListing) {
+          listing.add((int) number, UNKNOWN_SIZE, new String(value, StandardCharsets.US_ASCII));
+        } else {
+          listing.add((int) number, parseNumber(entry, valueStart, valueEnd), null);
+        }
+      }
+    }
+    return listing.build();
+  }
+
+  private static int skipBlanks(RbelContent content, int index) {
+    while (index < content.size() && content.get(index) == ' ') {
+      index++;
+    }
+    return index;
+  }
+
+  private static int endOfToken(RbelContent content, int index) {
+    while (index < content.size() && content.get(index) != ' ') {
+      index++;
+    }
+    return index;
+  }
+
+  /** The decimal number between the indices, -1 if it is not one. */
+  private static long parseNumber(RbelContent content, int from, int to) {
+    if (from >= to || to - from > 18) {
+      return -1;
+    }
+    long number = 0;
+    for (int i = from; i < to; i++) {
+      int digit = content.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      number = number * 10 + digit;
+    }
+    return number;
+  }
+
+  public int getMessageCount() {
+    return messageNumbers.length;
+  }
+
+  public int getMessageNumber(int index) {
+    return messageNumbers[index];
+  }
+
+  /** The size of the message in octets as announced by LIST. */
+  public OptionalLong findSize(int messageNumber) {
+    int index = Arrays.binarySearch(messageNumbers, messageNumber);
+    return index >= 0 && sizes[index] != UNKNOWN_SIZE
+        ? OptionalLong.of(sizes[index])
+        : OptionalLong.empty();
+  }
+
+  /** The unique id of the message as announced by UIDL. */
+  public Optional<String> findUid(int messageNumber) {
+    int index = Arrays.binarySearch(messageNumbers, messageNumber);
+    return index >= 0 ? Optional.ofNullable(uids[index]) : Optional.empty();
+  }
+
+  /** Combines this index with a newer one, the newer entries take precedence. */
+  public RbelPop3MailboxIndexFacet mergedWith(RbelPop3MailboxIndexFacet newer) {
+    int[] mergedNumbers =
+        IntStream.concat(Arrays.stream(messageNumbers), Arrays.stream(newer.messageNumbers))
+            .sorted()
+            .distinct()
+            .toArray();
+    long[] mergedSizes = new long[mergedNumbers.length];
+    String[] mergedUids = new String[mergedNumbers.length];
+    for (int i = 0; i < mergedNumbers.length; i++) {
+      int number = mergedNumbers[i];
+      mergedSizes[i] = newer.findSize(number).orElse(findSize(number).orElse(UNKNOWN_SIZE));
+      mergedUids[i] = newer.findUid(number).or(() -> findUid(number)).orElse(null);
+    }
+    return new RbelPop3MailboxIndexFacet(mergedNumbers, mergedSizes, mergedUids);
+  }
+
+  private String describeEntry(int index) {
+    var entry = new StringBuilder().append(messageNumbers[index]).append(':');
+    if (sizes[index] != UNKNOWN_SIZE) {
+      entry.append(' ').append(sizes[index]).append(" octets");
+    }
+    if (uids[index] != null) {
+      entry.append(" uid ").append(uids[index]);
+    }
+    return entry.toString();
+  }
+
+  @Override
+  public RbelMultiMap<RbelElement> getChildElements() {
+    return new RbelMultiMap<>();
+  }
+
+  /**
+   * Collects the entries of a listing, sized by its number of lines. Listings are ordered by
+   * message number, entries out of order are inserted at their place and a repeated message
+   * number replaces the earlier entry.
+   */
+  private static final class Listing {
+    private int[] numbers;
+    private long[] sizes;
+    private String[] uids;
+    private int count;
+
+    private Listing(int capacity) {
+      numbers = new int[capacity];
+      sizes = new long[capacity];
+      uids = new String[capacity];
+    }
+
+    private void add(int number, long size, String uid) {
+      int index = count;
+      if (count > 0 && numbers[count - 1] >= number) {
+        index = Arrays.binarySearch(numbers, 0, count, number);
+        if (index >= 0) {
+          sizes[index] = size;
+          uids[index] = uid;
+          return;
+        }
+        index = -index - 1;
+        System.arraycopy(numbers, index, numbers, index + 1, count - index);
+        System.arraycopy(sizes, index, sizes, index + 1, count - index);
+        System.arraycopy(uids, index, uids, index + 1, count - index);
+      }
+      numbers[index] = number;
+      sizes[index] = size;
+      uids[index] = uid;
+      count++;
+    }
+
+    private Optional<RbelPop3MailboxIndexFacet> build() {
+      if (count == 0) {
+        return Optional.empty();
+      }
+      if (count < numbers.length) {
+        numbers = Arrays.copyOf(numbers, count);
+        sizes = Arrays.copyOf(sizes, count);
+        uids = Arrays.copyOf(uids, count);
+      }
+      return Optional.of(new RbelPop3MailboxIndexFacet(numbers, sizes, uids));
+    }
+  }
+}
@@ -29,11 +29,17 @@ import de.gematik.rbellogger.converter.ConverterInfo;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelResponseFacet;
 import de.gematik.rbellogger.data.core.TracingMessagePairFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet.Target;
 import de.gematik.rbellogger.util.EmailConversionUtils;
+import de.gematik.rbellogger.util.MailLineIndex;
+import de.gematik.rbellogger.util.MailSession;
+import de.gematik.rbellogger.util.MailSession.Protocol;
+import de.gematik.rbellogger.util.MailSessions;
 import de.gematik.rbellogger.util.RbelContent;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.regex.Pattern;
 import lombok.extern.slf4j.Slf4j;
@@ -53,6 +59,7 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
   public static final byte[] ERR_PREFIX = "-ERR ".getBytes();
   public static final byte[] OK_PREFIX = "+OK\r\n".getBytes();
   public static final byte[] SPACE_PREFIX = "+ ".getBytes();
+  private static final byte[] SPACE_BYTES = " ".getBytes();
 
   @Override
   public RbelConversionPhase getPhase() {
@@ -61,25 +68,66 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
 
   @Override
   public void consumeElement(final RbelElement element, final RbelConversionExecutor context) {
-    buildPop3ResponseFacet(element, context)
-        .ifPresentOrElse(
+    if (!(isResponseCandidate(element.getContent()) && convertResponse(element, context))) {
+      removePairingWithPop3Command(element);
+    }
+  }
+
+  private boolean convertResponse(RbelElement element, RbelConversionExecutor context) {
+    var sessions = MailSessions.of(context);
+    var session = sessions.find(element).filter(s -> s.getProtocol() == Protocol.POP3);
+    // without a session, no POP3 message was seen on the connection yet
+    var firstResponse = session.map(s -> !s.isGreetingSeen()).orElse(true);
+    if (!firstResponse) {
+      findPairedCommand(element, session, context);
+    }
+    var lines =
+        getCompleteResponse(element, firstResponse, session, context).map(MailLineIndex::of);
+    var response = lines.flatMap(l -> parseLines(l, element, firstResponse, context));
+    response.ifPresent(
+        pair -> {
+          var facet = pair.getLeft();
+          var length = pair.getRight();
+          element.addFacet(facet);
+          element.setUsedBytes(length);
+          element.addFacet(new RbelResponseFacet(facet.getStatus().getRawStringContent()));
+          var recordedSession = sessions.recordResponse(session, element, Protocol.POP3);
+          indexMailbox(element, lines.get(), recordedSession);
+        });
+    return response.isPresent();
+  }
+
+  private static void indexMailbox(
+      RbelElement element, MailLineIndex lines, Optional<MailSession> session) {
+    element
+        .getFacet(RbelPop3PairedCommandFacet.class)
+        .map(RbelPop3PairedCommandFacet::command)
+        .filter(command -> command == RbelPop3Command.LIST || command == RbelPop3Command.UIDL)
+        .filter(command -> isOkResponse(element.getContent()))
+        .flatMap(
+            command -> RbelPop3MailboxIndexFacet.parse(lines, command == RbelPop3Command.UIDL))
+        .ifPresent(
+            index -> {
+              element.addFacet(index);
+              session.ifPresent(s -> s.updateMailboxIndex(index));
+            });
+  }
+
+  private static boolean isOkResponse(RbelContent content) {
+    return content.startsWith(OK_SPACE_PREFIX) || content.startsWith(OK_PREFIX);
+  }
+
+  private static void removePairingWithPop3Command(RbelElement element) {
+    element
+        .getFacet(TracingMessagePairFacet.class)
+        .ifPresent(
             pair -> {
-              var facet = pair.getLeft();
-              var length = pair.getRight();
-              element.addFacet(facet);
-              element.setUsedBytes(length);
-              element.addFacet(new RbelResponseFacet(facet.getStatus().getRawStringContent()));
-            },
-            () ->
-                element
-                    .getFacet(TracingMessagePairFacet.class)
-                    .ifPresent(
-                        pair -> {
-                          if (pair.getRequest().hasFacet(RbelPop3CommandFacet.class)) {
-                            pair.getRequest().removeFacetsOfType(TracingMessagePairFacet.class);
-                            pair.getResponse().removeFacetsOfType(TracingMessagePairFacet.class);
-                          }
-                        }));
+              if (pair.getRequest().hasFacet(RbelPop3CommandFacet.class)) {
+                pair.getRequest().removeFacetsOfType(TracingMessagePairFacet.class);
+                pair.getResponse().removeFacetsOfType(TracingMessagePairFacet.class);
+                pair.getResponse().removeFacetsOfType(RbelPop3PairedCommandFacet.class);
+              }
+            });
   }
 
   public static class RbelPop3BodyConverter extends RbelConverterPlugin {
@@ -93,18 +141,13 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
                   findPop3Command(element, context)
                       .filter(MIME_BODY_RESPONSE_COMMANDS::contains)
                       .isPresent())
+          .map(body -> RbelMimeRoutingFacet.routeTo(body, Target.MIME_MESSAGE))
           .ifPresent(context::convertElement);
     }
   }
 
-  private Optional<Pair<RbelPop3ResponseFacet, Integer>> buildPop3ResponseFacet(
-      RbelElement element, final RbelConversionExecutor context) {
-    return Optional.of(element.getContent())
-        .filter(c -> c.size() >= 4)
-        .filter(this::startsWithOkOrErrOrSpace)
-        .flatMap(c -> getCompleteResponse(element, context))
-        .map(s -> s.split(EmailConversionUtils.CRLF_BYTES))
-        .flatMap(lines -> parseLines(lines, element, context));
+  private boolean isResponseCandidate(RbelContent content) {
+    return content.size() >= 4 && startsWithOkOrErrOrSpace(content);
   }
 
   private boolean startsWithOkOrErrOrSpace(RbelContent array) {
@@ -115,7 +158,10 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
   }
 
   private Optional<RbelContent> getCompleteResponse(
-      RbelElement element, final RbelConversionExecutor context) {
+      RbelElement element,
+      boolean firstResponse,
+      Optional<MailSession> session,
+      final RbelConversionExecutor context) {
     log.debug(
         "getCompleteResponse: {}",
         bytesToStringWithoutNonPrintableCharacters(element.getContent().toByteArray()));
@@ -124,7 +170,7 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
     if (firstLineEnd < 0) {
       return Optional.empty();
     }
-    if (isFirstResponse(element, context)) {
+    if (firstResponse) {
       endIndex = firstLineEnd + EmailConversionUtils.CRLF_BYTES.length;
     } else {
       Pair<byte[], Integer> indexBytesAndIndex =
@@ -133,10 +179,14 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
                   command -> {
                     log.debug("found command: {}", command);
                     return switch (command) {
-                      case TOP, CAPA, RETR, UIDL ->
+                      case TOP, CAPA, UIDL ->
                           Pair.of(
                               CRLF_DOT_CRLF_BYTES,
                               element.getContent().indexOf(CRLF_DOT_CRLF_BYTES, firstLineEnd));
+                      case RETR ->
+                          Pair.of(
+                              CRLF_DOT_CRLF_BYTES,
+                              findRetrTerminator(element, session, firstLineEnd));
                       case LIST -> findListLinesEndIndex(element, context, firstLineEnd);
                       case AUTH ->
                           Pair.of(EmailConversionUtils.CRLF_BYTES, findAuthLinesEndIndex(element));
@@ -158,7 +208,8 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
 
   private Pair<byte[], Integer> findListLinesEndIndex(
       RbelElement element, RbelConversionExecutor context, int firstLineEnd) {
-    return findPop3Request(element, context)
+    return findPairedCommand(element, Optional.empty(), context)
+        .map(RbelPop3PairedCommandFacet::request)
         .flatMap(request -> request.getFacet(RbelPop3CommandFacet.class))
         .filter(
             facet -> facet.getArguments() == null || facet.getArguments().getContent().isEmpty())
@@ -170,6 +221,50 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
         .orElse(null);
   }
 
+  /**
+   * Frames a RETR response with the size LIST announced for the message, so a complete response is
+   * not scanned for the terminator. If the terminator does not follow at the announced size, e.g.
+   * with dot-stuffing, an inaccurate size or an incomplete response, the response is scanned.
+   */
+  private static int findRetrTerminator(
+      RbelElement element, Optional<MailSession> session, int firstLineEnd) {
+    var content = element.getContent();
+    var announcedSize =
+        isOkResponse(content) ? findAnnouncedSize(element, session) : OptionalLong.empty();
+    if (announcedSize.isPresent()) {
+      // the terminator follows the CRLF which ends the message
+      long terminatorIndex = firstLineEnd + announcedSize.getAsLong();
+      if (terminatorIndex + CRLF_DOT_CRLF_BYTES.length <= content.size()
+          && content.startsWith(CRLF_DOT_CRLF_BYTES, (int) terminatorIndex)) {
+        return (int) terminatorIndex;
+      }
+    }
+    return content.indexOf(CRLF_DOT_CRLF_BYTES, firstLineEnd);
+  }
+
+  private static OptionalLong findAnnouncedSize(
+      RbelElement element, Optional<MailSession> session) {
+    var mailboxIndex = session.flatMap(MailSession::getMailboxIndex);
+    if (mailboxIndex.isEmpty()) {
+      return OptionalLong.empty();
+    }
+    return element
+        .getFacet(RbelPop3PairedCommandFacet.class)
+        .flatMap(paired -> paired.request().getFacet(RbelPop3CommandFacet.class))
+        .map(RbelPop3CommandFacet::getArguments)
+        .flatMap(arguments -> parseMessageNumber(arguments.getRawStringContent()))
+        .map(messageNumber -> mailboxIndex.get().findSize(messageNumber))
+        .orElse(OptionalLong.empty());
+  }
+
+  private static Optional<Integer> parseMessageNumber(String argument) {
+    try {
+      return Optional.of(Integer.parseInt(argument.trim()));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
   private static int findAuthLinesEndIndex(RbelElement element) {
     int index = 0;
     while (element.getContent().startsWith(SPACE_PREFIX, index)) {
@@ -183,43 +278,43 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
     return element.getContent().indexOf(EmailConversionUtils.CRLF_BYTES, index);
   }
 
-  private static boolean isFirstResponse(RbelElement element, RbelConversionExecutor context) {
-    return context
-        .findPreviousMessageInSameConnectionAs(
-            element, e -> e.hasFacet(RbelPop3ResponseFacet.class))
-        .isEmpty();
-  }
-
   private Optional<Pair<RbelPop3ResponseFacet, Integer>> parseLines(
-      List<RbelContent> lines, RbelElement element, RbelConversionExecutor context) {
+      MailLineIndex lines,
+      RbelElement element,
+      boolean firstResponse,
+      RbelConversionExecutor context) {
     var lastHeaderLine = findLastHeaderLineIndex(lines);
-    if (lastHeaderLine == lines.size()) {
+    if (lastHeaderLine == lines.lineCount()) {
       return Optional.empty();
     }
 
-    RbelContent firstLineContent = lines.get(0);
-    String firstLine =
-        new String(
-            firstLineContent.toByteArray(
-                0, firstLineContent.size() - EmailConversionUtils.CRLF_BYTES.length),
-            StandardCharsets.UTF_8);
-    String[] firstLineParts = firstLine.split(" ", 2);
-    String status = firstLineParts[0];
-    String header = firstLineParts.length > 1 ? firstLineParts[1] : null;
-    if (header == null || header.isBlank()) {
+    var firstLine = lines.lineWithoutCrlf(0);
+    int separator = firstLine.indexOf(SPACE_BYTES, 0);
+    var status = separator < 0 ? firstLine : firstLine.subArray(0, separator);
+    var header = separator < 0 ? null : firstLine.subArray(separator + 1, firstLine.size());
+    if (header == null || isBlank(header)) {
       return Optional.of(buildResponseFacet(element, status, null, lines, lastHeaderLine + 1));
     } else {
-      return buildHeaderElement(element, header, context)
+      return buildHeaderElement(element, header, firstResponse, context)
           .map(
               headerElement ->
                   buildResponseFacet(element, status, headerElement, lines, lastHeaderLine + 1));
     }
   }
 
-  private static int findLastHeaderLineIndex(List<RbelContent> lines) {
+  private static boolean isBlank(RbelContent content) {
+    for (int i = 0; i < content.size(); i++) {
+      if (!Character.isWhitespace(content.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int findLastHeaderLineIndex(MailLineIndex lines) {
     var lastHeaderLine = 0;
-    while (lastHeaderLine < lines.size()) {
-      if (lines.get(lastHeaderLine).startsWith("+ ".getBytes())) {
+    while (lastHeaderLine < lines.lineCount()) {
+      if (lines.lineStartsWith(lastHeaderLine, SPACE_PREFIX)) {
         lastHeaderLine++;
       } else {
         break;
@@ -230,11 +325,11 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
 
   private Pair<RbelPop3ResponseFacet, Integer> buildResponseFacet(
       RbelElement element,
-      String status,
+      RbelContent status,
       RbelElement headerElement,
-      List<RbelContent> lines,
+      MailLineIndex lines,
       int firstBodyLine) {
-    var length = lines.stream().mapToInt(RbelContent::size).sum();
+    var length = lines.getContent().size();
     var response =
         RbelPop3ResponseFacet.builder()
             .status(EmailConversionUtils.createChildElement(element, status))
@@ -245,8 +340,11 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
   }
 
   private Optional<RbelElement> buildHeaderElement(
-      RbelElement element, String header, RbelConversionExecutor context) {
-    if (isFirstResponse(element, context)) {
+      RbelElement element,
+      RbelContent header,
+      boolean firstResponse,
+      RbelConversionExecutor context) {
+    if (firstResponse) {
       return Optional.of(EmailConversionUtils.createChildElement(element, header));
     }
 
@@ -260,14 +358,42 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
         .orElse(Optional.of(EmailConversionUtils.createChildElement(element, header)));
   }
 
-  private static Optional<RbelElement> findPop3Request(
+  public static Optional<RbelPop3Command> findPop3Command(
       RbelElement element, RbelConversionExecutor context) {
-    return context.findAndPairMatchingRequest(element, RbelPop3CommandFacet.class);
+    return findPairedCommand(element, Optional.empty(), context)
+        .map(RbelPop3PairedCommandFacet::command);
   }
 
-  public static Optional<RbelPop3Command> findPop3Command(
-      RbelElement element, RbelConversionExecutor context) {
-    return findPop3Request(element, context).flatMap(RbelPop3ResponseConverter::getPop3Command);
+  /**
+   * Returns the command the response answers. It is paired once and kept as facet of the
+   * response, within a session the oldest pending command is the one answered.
+   */
+  private static Optional<RbelPop3PairedCommandFacet> findPairedCommand(
+      RbelElement element, Optional<MailSession> session, RbelConversionExecutor context) {
+    var paired = element.getFacet(RbelPop3PairedCommandFacet.class);
+    if (paired.isPresent()) {
+      return paired;
+    }
+    var facet =
+        session
+            .flatMap(MailSession::getOldestPendingCommand)
+            .filter(command -> command.hasFacet(RbelPop3CommandFacet.class))
+            .filter(command -> !command.hasFacet(TracingMessagePairFacet.class))
+            .map(command -> pair(command, element))
+            .or(() -> context.findAndPairMatchingRequest(element, RbelPop3CommandFacet.class))
+            .flatMap(
+                request ->
+                    getPop3Command(request)
+                        .map(command -> new RbelPop3PairedCommandFacet(request, command)));
+    facet.ifPresent(element::addFacet);
+    return facet;
+  }
+
+  private static RbelElement pair(RbelElement request, RbelElement response) {
+    var pair = TracingMessagePairFacet.builder().request(request).response(response).build();
+    request.addFacet(pair);
+    response.addFacet(pair);
+    return request;
   }
 
   private static Optional<RbelPop3Command> getPop3Command(RbelElement element) {
@@ -277,20 +403,26 @@ public class RbelPop3ResponseConverter extends RbelConverterPlugin {
         .flatMap(e -> e.seekValue(RbelPop3Command.class));
   }
 
-  private Optional<RbelElement> buildStatOrListElement(RbelElement element, String header) {
-    var matcher = STAT_OR_LIST_HEADER.matcher(header);
+  private Optional<RbelElement> buildStatOrListElement(RbelElement element, RbelContent header) {
+    // the pattern only matches ASCII, so its character offsets are byte offsets into the header
+    var matcher =
+        STAT_OR_LIST_HEADER.matcher(new String(header.toByteArray(), StandardCharsets.UTF_8));
     if (matcher.matches()) {
-      var size = Optional.ofNullable(matcher.group("size")).orElse(matcher.group("size2"));
-      var count = matcher.group("count");
-      final RbelElement headerElement = RbelElement.wrap(element, header);
+      var sizeGroup = matcher.group("size") != null ? "size" : "size2";
+      final RbelElement headerElement = EmailConversionUtils.createChildElement(element, header);
       return Optional.of(
           headerElement.addFacet(
               RbelPop3StatOrListHeaderFacet.builder()
-                  .count(RbelElement.wrap(headerElement, count))
+                  .count(
+                      EmailConversionUtils.createChildElement(
+                          headerElement,
+                          header.subArray(matcher.start("count"), matcher.end("count"))))
                   .size(
-                      Optional.ofNullable(size)
-                          .map(s -> RbelElement.wrap(headerElement, s))
-                          .orElse(null))
+                      matcher.group(sizeGroup) == null
+                          ? null
+                          : EmailConversionUtils.createChildElement(
+                              headerElement,
+                              header.subArray(matcher.start(sizeGroup), matcher.end(sizeGroup))))
                   .build()));
     }
     return Optional.empty();
@@ -26,6 +26,7 @@ public enum RbelSmtpCommand {
   MAIL,
   RCPT,
   DATA,
+  BDAT,
   EXPN,
   VRFY,
   HELP,
@@ -28,14 +28,21 @@ import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelRequestFacet;
 import de.gematik.rbellogger.data.core.RbelResponseFacet;
 import de.gematik.rbellogger.data.core.RbelRootFacet;
+import de.gematik.rbellogger.data.core.TracingMessagePairFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeRoutingFacet.Target;
 import de.gematik.rbellogger.util.EmailConversionUtils;
+import de.gematik.rbellogger.util.MailCommandRecognizer;
+import de.gematik.rbellogger.util.MailLineIndex;
+import de.gematik.rbellogger.util.MailPipelineFraming;
+import de.gematik.rbellogger.util.MailSession;
+import de.gematik.rbellogger.util.MailSession.Protocol;
+import de.gematik.rbellogger.util.MailSessions;
 import de.gematik.rbellogger.util.RbelContent;
+import de.gematik.rbellogger.util.ResumableTerminatorSearch;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 import java.util.Optional;
-import java.util.StringTokenizer;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.tuple.Pair;
 
 @Slf4j
 @ConverterInfo(onlyActivateFor = "smtp")
@@ -46,6 +53,17 @@ public class RbelSmtpCommandConverter extends RbelConverterPlugin {
   private static final byte[] AUTH_COMMAND_PREFIX_BYTES = "AUTH ".getBytes();
   private static final byte[] AUTH_PLAIN_PREFIX_BYTES = "AUTH PLAIN".getBytes();
   private static final byte[] DATA_PREFIX_BYTES = "DATA\r\n".getBytes();
+  private static final byte[] BDAT_PREFIX_BYTES = "BDAT ".getBytes();
+  private static final byte[] SPACE_BYTES = " ".getBytes();
+
+  private static final MailCommandRecognizer<RbelSmtpCommand> COMMAND_RECOGNIZER =
+      new MailCommandRecognizer<>(RbelSmtpCommand.class, MIN_SMTP_COMMAND_LINE_LENGTH);
+
+  private final ResumableTerminatorSearch dataTerminatorSearch =
+      new ResumableTerminatorSearch(CRLF_DOT_CRLF_BYTES);
+  private final MailPipelineFraming pipelineFraming =
+      new MailPipelineFraming(this::isSingleLineCommand);
+  private final SmtpBdatTransfer bdatTransfer = new SmtpBdatTransfer();
 
   @Override
   public RbelConversionPhase getPhase() {
@@ -54,18 +72,73 @@ public class RbelSmtpCommandConverter extends RbelConverterPlugin {
 
   @Override
   public void consumeElement(final RbelElement element, final RbelConversionExecutor context) {
-    buildSmtpCommandFacet(element, context)
+    var pipelinedFrame = pipelineFraming.nextFrame(element);
+    if (pipelinedFrame.isPresent()) {
+      convertPipelinedCommand(element, pipelinedFrame.get(), context);
+      return;
+    }
+    Optional.of(element.getContent())
+        .filter(c -> c.size() >= MIN_SMTP_COMMAND_LINE_LENGTH)
+        .flatMap(this::parseCommand)
+        .ifPresent(command -> convertCommand(element, command, context));
+  }
+
+  private void convertCommand(
+      RbelElement element, RbelSmtpCommand command, RbelConversionExecutor context) {
+    var sessions = MailSessions.of(context);
+    var session = sessions.find(element);
+    if (!canBeParsedAsSmtpCommand(command, element, session, context)) {
+      return;
+    }
+    getCompleteCommandContent(element, element.getContent())
         .ifPresent(
-            pair -> {
-              var facet = pair.getLeft();
-              var length = pair.getRight();
-              element.addFacet(facet);
-              element.setUsedBytes(length);
-
-              element.addFacet(new RbelRootFacet<>(facet));
-              element.addFacet(
-                  new RbelRequestFacet(facet.getCommand().getRawStringContent(), true));
-            });
+            content ->
+                addCommandFacets(
+                    element,
+                    buildSmtpCommandFacet(command, content, element),
+                    content.size(),
+                    sessions,
+                    session,
+                    false));
+  }
+
+  private void convertPipelinedCommand(
+      RbelElement element, MailPipelineFraming.Frame frame, RbelConversionExecutor context) {
+    var sessions = MailSessions.of(context);
+    var content = element.getContent().subArray(0, frame.length());
+    parseCommand(content)
+        .ifPresent(
+            command ->
+                addCommandFacets(
+                    element,
+                    buildSmtpCommandFacet(command, content, element),
+                    frame.length(),
+                    sessions,
+                    sessions.find(element),
+                    true));
+  }
+
+  private void addCommandFacets(
+      RbelElement element,
+      RbelSmtpCommandFacet facet,
+      int length,
+      MailSessions sessions,
+      Optional<MailSession> session,
+      boolean isPipelined) {
+    element.addFacet(facet);
+    element.setUsedBytes(length);
+
+    element.addFacet(new RbelRootFacet<>(facet));
+    element.addFacet(new RbelRequestFacet(facet.getCommand().getRawStringContent(), true));
+    session
+        .flatMap(MailSession::getNewestPendingCommand)
+        .filter(unanswered -> unanswered != element)
+        .filter(unanswered -> !unanswered.hasFacet(TracingMessagePairFacet.class))
+        .ifPresent(unanswered -> element.addFacet(new RbelSmtpPipelineFacet(unanswered)));
+    pipelineFraming.recordCommand(element, length, isPipelined);
+    var command = facet.getCommand().seekValue(RbelSmtpCommand.class);
+    sessions.recordCommand(
+        session, element, Protocol.SMTP, command.filter(RbelSmtpCommand.QUIT::equals).isPresent());
   }
 
   public static class RbelSmtpBodyConverter extends RbelConverterPlugin {
@@ -73,44 +146,55 @@ public class RbelSmtpCommandConverter extends RbelConverterPlugin {
     public void consumeElement(RbelElement element, RbelConversionExecutor context) {
       element
           .getFacet(RbelSmtpCommandFacet.class)
-          .filter(facet -> facet.getCommand().seekValue().get().equals(RbelSmtpCommand.DATA))
+          .filter(RbelSmtpBodyConverter::carriesMail)
           .map(RbelSmtpCommandFacet::getBody)
+          .map(body -> RbelMimeRoutingFacet.routeTo(body, Target.MIME_MESSAGE))
           .ifPresent(context::convertElement);
     }
+
+    private static boolean carriesMail(RbelSmtpCommandFacet facet) {
+      var command = facet.getCommand().seekValue().get();
+      if (command.equals(RbelSmtpCommand.BDAT)) {
+        // only the last chunk carries the complete mail
+        return facet.getArguments() != null
+            && SmtpBdatTransfer.isLastChunk(facet.getArguments().getRawStringContent());
+      }
+      return command.equals(RbelSmtpCommand.DATA);
+    }
   }
 
-  private Optional<Pair<RbelSmtpCommandFacet, Integer>> buildSmtpCommandFacet(
-      RbelElement element, RbelConversionExecutor context) {
-    return Optional.of(element.getContent())
-        .filter(c -> c.size() >= MIN_SMTP_COMMAND_LINE_LENGTH)
-        .flatMap(this::parseCommand)
-        .filter(command -> canBeParsedAsSmtpCommand(element, command, context))
-        .flatMap(
-            command ->
-                Optional.of(element.getContent())
-                    .flatMap(this::getCompleteCommandContent)
-                    .map(
-                        content ->
-                            Pair.of(
-                                buildSmtpCommandFacet(command, content, element), content.size())));
+  private boolean isSingleLineCommand(RbelContent line) {
+    return line.size() >= MIN_SMTP_COMMAND_LINE_LENGTH
+        && Character.isLetter(line.get(0))
+        && parseCommand(line)
+            .filter(command -> command != RbelSmtpCommand.DATA)
+            .filter(command -> command != RbelSmtpCommand.AUTH)
+            .filter(command -> command != RbelSmtpCommand.BDAT)
+            .isPresent();
   }
 
   private boolean canBeParsedAsSmtpCommand(
-      RbelElement element, RbelSmtpCommand command, RbelConversionExecutor context) {
-    if (command != RbelSmtpCommand.EHLO && command != RbelSmtpCommand.HELO) {
-      var previousMessage =
-          getPreviousMessage(element, context)
-          .filter(e -> e.hasFacet(RbelRequestFacet.class) || e.hasFacet(RbelResponseFacet.class));
-      if (previousMessage.isPresent()) {
-        var message = previousMessage.get();
-        if (!(message.hasFacet(RbelSmtpCommandFacet.class)
-            || message.hasFacet(RbelSmtpResponseFacet.class))) {
-          log.debug(
-              "Previous message {} is not an SMTP message, skipping SMTP command parsing",
-              message.getUuid());
-          return false;
-        }
-      }
+      RbelSmtpCommand command,
+      RbelElement element,
+      Optional<MailSession> session,
+      RbelConversionExecutor context) {
+    if (command == RbelSmtpCommand.EHLO || command == RbelSmtpCommand.HELO) {
+      return true;
+    }
+    if (session.isPresent()) {
+      return session.get().getProtocol() == Protocol.SMTP;
+    }
+    // only the first command of a connection is checked against the message before it
+    var message =
+        getPreviousMessage(element, context)
+            .filter(e -> e.hasFacet(RbelRequestFacet.class) || e.hasFacet(RbelResponseFacet.class));
+    if (message.isPresent()
+        && !(message.get().hasFacet(RbelSmtpCommandFacet.class)
+            || message.get().hasFacet(RbelSmtpResponseFacet.class))) {
+      log.debug(
+          "Previous message {} is not an SMTP message, skipping SMTP command parsing",
+          message.get().getUuid());
+      return false;
     }
     return true;
   }
@@ -127,9 +211,11 @@ public class RbelSmtpCommandConverter extends RbelConverterPlugin {
     return Optional.of(content.subArray(0, endIndex));
   }
 
-  private Optional<RbelContent> getCompleteCommandContent(RbelContent content) {
+  private Optional<RbelContent> getCompleteCommandContent(
+      RbelElement element, RbelContent content) {
     if (content.startsTrimmedWithIgnoreCase(DATA_PREFIX_BYTES, StandardCharsets.UTF_8)) {
-      var endIndex = content.indexOf(CRLF_DOT_CRLF_BYTES);
+      // DATA arrives in many segments, the search continues where the last attempt stopped
+      var endIndex = dataTerminatorSearch.indexOf(element, content);
       if (endIndex >= 0) {
         return Optional.of(content.subArray(0, endIndex + CRLF_DOT_CRLF_BYTES.length));
       }
@@ -139,61 +225,90 @@ public class RbelSmtpCommandConverter extends RbelConverterPlugin {
         && !content.startsTrimmedWithIgnoreCase(AUTH_PLAIN_PREFIX_BYTES, StandardCharsets.UTF_8)) {
       // AUTH (without PLAIN) needs another 2 lines with the credentials
       return findEndOfLine(content, 3);
+    } else if (content.startsTrimmedWithIgnoreCase(BDAT_PREFIX_BYTES, StandardCharsets.UTF_8)) {
+      return findEndOfBdatChunk(content);
     } else {
       return findEndOfLine(content, 1);
     }
   }
 
+  private Optional<RbelContent> findEndOfBdatChunk(RbelContent content) {
+    // the chunk length is announced, so the chunk is framed without looking at its bytes
+    return findEndOfLine(content, 1)
+        .flatMap(
+            commandLine -> {
+              var size = SmtpBdatTransfer.chunkSize(parseArgumentsString(commandLine));
+              if (size.isEmpty() || commandLine.size() + size.getAsLong() > content.size()) {
+                return Optional.empty();
+              }
+              return Optional.of(content.subArray(0, commandLine.size() + (int) size.getAsLong()));
+            });
+  }
+
   private Optional<RbelSmtpCommand> parseCommand(RbelContent content) {
-    var shortPrefix =
-        new String(content.toByteArray(0, MIN_SMTP_COMMAND_LINE_LENGTH), StandardCharsets.UTF_8);
-    var command = new StringTokenizer(shortPrefix).nextToken();
-    try {
-      return Optional.of(RbelSmtpCommand.fromStringIgnoringCase(command));
-    } catch (IllegalArgumentException e) {
-      // fall through
-    }
-    return Optional.empty();
+    return COMMAND_RECOGNIZER.recognize(content);
   }
 
   private RbelSmtpCommandFacet buildSmtpCommandFacet(
       RbelSmtpCommand command, RbelContent content, RbelElement element) {
-    var lines = content.split(EmailConversionUtils.CRLF_BYTES);
-    RbelElement body = buildSmtpBody(command, element, lines);
+    // the chunk of a BDAT command is not split into lines
+    var lines =
+        MailLineIndex.of(
+            command == RbelSmtpCommand.BDAT ? findEndOfLine(content, 1).orElse(content) : content);
+    RbelElement body = buildSmtpBody(command, element, content, lines);
     return RbelSmtpCommandFacet.builder()
         .command(
             RbelElement.wrap(command.name().getBytes(StandardCharsets.UTF_8), element, command))
-        .arguments(parseArguments(lines.get(0), element))
+        .arguments(parseArguments(lines.lineWithoutCrlf(0), element))
         .body(body)
         .build();
   }
 
   private RbelElement buildSmtpBody(
-      RbelSmtpCommand command, RbelElement element, List<RbelContent> lines) {
+      RbelSmtpCommand command,
+      RbelElement element,
+      RbelContent content,
+      MailLineIndex lines) {
     return switch (command) {
       case AUTH ->
-          lines.size() > 2
+          lines.lineCount() > 2
               ? EmailConversionUtils.createChildElement(
                   element,
-                  new String(
-                      EmailConversionUtils.mergeLines(lines.subList(1, lines.size())).toByteArray(),
-                      StandardCharsets.UTF_8))
+                  lines
+                      .getContent()
+                      .subArray(
+                          lines.lineStart(1),
+                          lines.getContent().size() - EmailConversionUtils.CRLF_BYTES.length))
               : null;
       case DATA -> EmailConversionUtils.parseMailBody(element, lines, 1);
+      case BDAT -> buildBdatBody(element, content, lines);
+      case RSET -> {
+        bdatTransfer.discard(element);
+        yield null;
+      }
       default -> null;
     };
   }
 
+  private RbelElement buildBdatBody(
+      RbelElement element, RbelContent content, MailLineIndex lines) {
+    var chunk = content.subArray(lines.lineEnd(0), content.size());
+    var isLast = SmtpBdatTransfer.isLastChunk(parseArgumentsString(lines.lineWithoutCrlf(0)));
+    var body = bdatTransfer.addChunk(element, chunk, isLast).orElse(chunk);
+    return body.isEmpty() ? null : RbelElement.builder().content(body).parentNode(element).build();
+  }
+
   private static RbelElement parseArguments(RbelContent line, RbelElement element) {
-    String[] firstLineParts =
-        new String(
-                line.toByteArray(0, line.size() - EmailConversionUtils.CRLF_BYTES.length),
-                StandardCharsets.UTF_8)
-            .split(" ", 2);
-    RbelElement argumentsElement = null;
-    if (firstLineParts.length > 1) {
-      argumentsElement = EmailConversionUtils.createChildElement(element, firstLineParts[1]);
+    int separator = line.indexOf(SPACE_BYTES, 0);
+    if (separator < 0) {
+      return null;
     }
-    return argumentsElement;
+    return EmailConversionUtils.createChildElement(
+        element, line.subArray(separator + 1, line.size()));
+  }
+
+  private static String parseArgumentsString(RbelContent commandLine) {
+    String[] parts = new String(commandLine.toByteArray(), StandardCharsets.UTF_8).split(" ", 2);
+    return parts.length > 1 ? parts[1].trim() : "";
   }
 }
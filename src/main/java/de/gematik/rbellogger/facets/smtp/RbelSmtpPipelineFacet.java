@@ -0,0 +1,53 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.smtp;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.RbelMultiMap;
+import de.gematik.rbellogger.data.core.RbelFacet;
+import de.gematik.rbellogger.data.core.TracingMessagePairFacet;
+
+/**
+ * Links a command to the command sent before it which was still waiting for its response, i.e.
+ * the commands were pipelined (RFC 2920). The server answers pipelined commands in order, so a
+ * response belongs to the oldest command of the chain which has not been answered yet.
+ *
+ * @param previousCommand the unanswered command sent before this one
+ */
+public record RbelSmtpPipelineFacet(RbelElement previousCommand) implements RbelFacet {
+
+  /** Follows the chain of unanswered commands back to the oldest one. */
+  public static RbelElement findOldestUnansweredCommand(RbelElement command) {
+    var oldest = command;
+    var previous = command.getFacet(RbelSmtpPipelineFacet.class);
+    while (previous.isPresent()
+        && !previous.get().previousCommand().hasFacet(TracingMessagePairFacet.class)) {
+      oldest = previous.get().previousCommand();
+      previous = oldest.getFacet(RbelSmtpPipelineFacet.class);
+    }
+    return oldest;
+  }
+
+  @Override
+  public RbelMultiMap<RbelElement> getChildElements() {
+    return new RbelMultiMap<>();
+  }
+}
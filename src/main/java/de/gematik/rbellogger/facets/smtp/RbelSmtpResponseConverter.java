@@ -20,9 +20,6 @@
  */
 package de.gematik.rbellogger.facets.smtp;
 
-import static de.gematik.rbellogger.util.EmailConversionUtils.CRLF;
-import static de.gematik.rbellogger.util.EmailConversionUtils.CRLF_BYTES;
-
 import de.gematik.rbellogger.RbelConversionExecutor;
 import de.gematik.rbellogger.RbelConversionPhase;
 import de.gematik.rbellogger.RbelConverterPlugin;
@@ -30,24 +27,19 @@ import de.gematik.rbellogger.converter.ConverterInfo;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelResponseFacet;
 import de.gematik.rbellogger.data.core.RbelRootFacet;
-import de.gematik.rbellogger.util.RbelContent;
-import java.nio.charset.StandardCharsets;
+import de.gematik.rbellogger.data.core.TracingMessagePairFacet;
+import de.gematik.rbellogger.util.EmailConversionUtils;
+import de.gematik.rbellogger.util.MailSession;
+import de.gematik.rbellogger.util.MailSession.Protocol;
+import de.gematik.rbellogger.util.MailSessions;
 import java.util.Optional;
-import java.util.regex.Pattern;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 @Slf4j
 @ConverterInfo(onlyActivateFor = "smtp")
 public class RbelSmtpResponseConverter extends RbelConverterPlugin {
 
-  public static final Pattern SMTP_RESPONSE =
-      Pattern.compile("\\d{3}((-[^\r]*\r\n\\d{3})*( [^\r]+\r\n)|\r\n).*", Pattern.DOTALL);
-  private static final Pattern SMTP_MULTI_LINE_RESPONSE =
-      Pattern.compile("(?<status>\\d{3})-.+", Pattern.DOTALL);
-  private static final Pattern SMTP_SINGLE_LINE_RESPONSE =
-      Pattern.compile("(?<status>\\d{3})( (?<body>[^\r]+)|)\r\n.*", Pattern.DOTALL);
   public static final int MIN_SMTP_RESPONSE_LENGTH = 4;
 
   @Override
@@ -66,106 +58,57 @@ public class RbelSmtpResponseConverter extends RbelConverterPlugin {
               element.addFacet(facet);
               element.addFacet(new RbelRootFacet<>(facet));
               element.addFacet(new RbelResponseFacet(facet.getStatus().getRawStringContent()));
-              context.findAndPairMatchingRequest(element, RbelSmtpCommandFacet.class);
+              var sessions = MailSessions.of(context);
+              var session = sessions.find(element);
+              pairWithRequest(element, session, context);
+              sessions.recordResponse(session, element, Protocol.SMTP);
             });
   }
 
-  private Optional<Pair<RbelSmtpResponseFacet, Integer>> buildSmtpResponseFacet(
-      RbelElement element) {
-    return Optional.ofNullable(element.getContent())
-        .filter(c -> c.size() > MIN_SMTP_RESPONSE_LENGTH)
-        .filter(c -> c.indexOf(CRLF.getBytes()) > 0)
-        .filter(this::startsWithResponseCode)
-        .map(RbelContent::toByteArray)
-        .map(c -> new String(c, StandardCharsets.UTF_8))
-        .filter(s -> SMTP_RESPONSE.matcher(s).matches())
-        .flatMap(s -> parseSmtpResponse(element, s));
-  }
-
-  private boolean startsWithResponseCode(RbelContent content) {
-    if (!(Character.isDigit(content.get(0))
-        && Character.isDigit(content.get(1))
-        && Character.isDigit(content.get(2)))) {
-      return false;
-    }
-    int c = content.get(3);
-    return c == ' ' || c == '\r' || c == '-';
-  }
-
-  private Optional<Pair<RbelSmtpResponseFacet, Integer>> parseSmtpResponse(
-      RbelElement element, String response) {
-    String status;
-    Optional<String> body;
-    int length;
-
-    var multiResponse = SMTP_MULTI_LINE_RESPONSE.matcher(response);
-    if (multiResponse.matches()) {
-      status = multiResponse.group("status");
-      var bodyAndLength = parseMultilineResponse(response, status);
-      if (bodyAndLength.isEmpty()) {
-        return Optional.empty();
-      }
-      body = bodyAndLength.map(Pair::getLeft);
-      length = bodyAndLength.map(Pair::getRight).orElseThrow();
+  private static void pairWithRequest(
+      RbelElement response, Optional<MailSession> session, RbelConversionExecutor context) {
+    // commands are answered in order, with pipelining the most recent one is not the right one.
+    // Only without a session, e.g. after it was idle for too long, the previous messages are
+    // searched for the pipelined commands.
+    var command =
+        session
+            .flatMap(MailSession::getOldestPendingCommand)
+            .or(() -> findOldestUnansweredPipelinedCommand(response, context))
+            .filter(c -> !c.hasFacet(TracingMessagePairFacet.class));
+    if (command.isPresent()) {
+      var pair =
+          TracingMessagePairFacet.builder().request(command.get()).response(response).build();
+      command.get().addFacet(pair);
+      response.addFacet(pair);
     } else {
-      var singleResponse = SMTP_SINGLE_LINE_RESPONSE.matcher(response);
-      if (singleResponse.matches()) {
-        status = singleResponse.group("status");
-        body = Optional.ofNullable(singleResponse.group("body"));
-        length = element.getContent().indexOf(CRLF_BYTES) + CRLF.length();
-      } else {
-        log.atDebug()
-            .addArgument(() -> StringUtils.abbreviate(response, 300))
-            .log("unknown SMTP response syntax: {}");
-        return Optional.empty();
-      }
+      context.findAndPairMatchingRequest(response, RbelSmtpCommandFacet.class);
     }
+  }
 
-    RbelElement bodyElement =
-        body.map(bodyString -> RbelElement.wrap(element, bodyString)).orElse(null);
-
-    return Optional.of(
-        Pair.of(
-            RbelSmtpResponseFacet.builder()
-                .status(RbelElement.wrap(element, status))
-                .body(bodyElement)
-                .build(),
-            length));
+  private static Optional<RbelElement> findOldestUnansweredPipelinedCommand(
+      RbelElement response, RbelConversionExecutor context) {
+    return context
+        .findPreviousMessageInSameConnectionAs(
+            response, message -> message.hasFacet(RbelSmtpCommandFacet.class))
+        .filter(command -> command.hasFacet(RbelSmtpPipelineFacet.class))
+        .map(RbelSmtpPipelineFacet::findOldestUnansweredCommand);
   }
 
-  private static Optional<Pair<String, Integer>> parseMultilineResponse(
-      String response, String status) {
-    // multiline responses look like this:
-    // <status>-<text><CRLF>
-    // ...
-    // <status>-<text><CRLF>
-    // <status> <text><CRLF>
-    StringBuilder body = new StringBuilder();
-    var lines = response.split(CRLF, 0);
-    var multilinePrefix = status + "-";
-    var prefixLength = multilinePrefix.length();
-    String lastLine = null;
-    int length = 0;
-    for (String line : lines) {
-      lastLine = line;
-      if (!line.startsWith(multilinePrefix)) {
-        break;
-      } else {
-        body.append(line.substring(prefixLength));
-        body.append(CRLF);
-        length += line.length() + CRLF.length();
-      }
-    }
-    if (lastLine == null) {
-      return Optional.empty();
-    }
-    var lastLineParts = lastLine.split(" ", 2);
-    if (!lastLineParts[0].equals(status) || lastLineParts.length != 2) {
-      return Optional.empty();
-    }
-    body.append(lastLineParts[1]);
-    body.append(CRLF);
-    length += lastLine.length() + CRLF.length();
-    return Optional.of(Pair.of(body.toString(), length));
+  private Optional<Pair<RbelSmtpResponseFacet, Integer>> buildSmtpResponseFacet(
+      RbelElement element) {
+    return Optional.ofNullable(element.getContent())
+        .flatMap(SmtpReplyParser::parse)
+        .map(
+            reply ->
+                Pair.of(
+                    RbelSmtpResponseFacet.builder()
+                        .status(EmailConversionUtils.createChildElement(element, reply.status()))
+                        .body(
+                            reply
+                                .body()
+                                .map(body -> EmailConversionUtils.createChildElement(element, body))
+                                .orElse(null))
+                        .build(),
+                    reply.length()));
   }
 }
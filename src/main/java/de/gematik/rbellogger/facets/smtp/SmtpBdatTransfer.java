@@ -0,0 +1,143 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.smtp;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.util.MailConnection;
+import de.gematik.rbellogger.util.RbelContent;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Collects the chunks of mails sent with BDAT (RFC 3030) per connection. Every BDAT command
+ * announces the exact length of its chunk, the last chunk is marked with LAST. Chunks are recorded
+ * per command, so converting a command again does not add its chunk twice. The commands of
+ * completed mails are remembered as well, so converting one of them again does not start the next
+ * mail.
+ */
+class SmtpBdatTransfer {
+
+  private static final String LAST_CHUNK_MARKER = "LAST";
+  private static final int MAX_TRACKED_CONNECTIONS = 10_000;
+  private static final int MAX_COMPLETED_COMMANDS = 1_000;
+
+  /** The transfers in the order of their last use, the least recently used one is evicted. */
+  private final Map<MailConnection, Transfer> transfersByConnection =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MailConnection, Transfer> eldest) {
+          return size() > MAX_TRACKED_CONNECTIONS;
+        }
+      };
+
+  /**
+   * @param arguments the arguments of the BDAT command, e.g. "1024 LAST"
+   * @return the announced length of the chunk
+   */
+  static OptionalLong chunkSize(String arguments) {
+    var parts = arguments.trim().split("\\s+");
+    if (parts[0].isEmpty() || !parts[0].chars().allMatch(Character::isDigit)) {
+      return OptionalLong.empty();
+    }
+    try {
+      return OptionalLong.of(Long.parseLong(parts[0]));
+    } catch (NumberFormatException e) {
+      return OptionalLong.empty();
+    }
+  }
+
+  static boolean isLastChunk(String arguments) {
+    var parts = arguments.trim().split("\\s+");
+    return parts.length > 1 && parts[1].equalsIgnoreCase(LAST_CHUNK_MARKER);
+  }
+
+  /**
+   * Adds a chunk of the mail sent on the connection of the command.
+   *
+   * @return the complete mail if this was the last chunk
+   */
+  synchronized Optional<RbelContent> addChunk(
+      RbelElement command, RbelContent chunk, boolean isLast) {
+    var connection = MailConnection.of(command);
+    if (connection.isEmpty()) {
+      return isLast ? Optional.of(chunk) : Optional.empty();
+    }
+    var transfer = transfersByConnection.computeIfAbsent(connection.get(), c -> new Transfer());
+    if (command.getUuid().equals(transfer.completedBy)) {
+      // the last chunk is converted again, the mail has already been assembled
+      return Optional.of(transfer.mail);
+    }
+    if (transfer.completedCommands.contains(command.getUuid())) {
+      // a chunk of a completed mail is converted again, it does not belong to the next mail
+      return Optional.empty();
+    }
+    transfer.chunksByCommand.put(command.getUuid(), chunk);
+    if (!isLast) {
+      return Optional.empty();
+    }
+    var chunks = transfer.chunksByCommand.values();
+    // a mail sent in one chunk is referenced, not copied
+    transfer.mail = chunks.size() == 1 ? chunk : concatenate(chunks);
+    transfer.completedBy = command.getUuid();
+    transfer.completedCommands.addAll(transfer.chunksByCommand.keySet());
+    transfer.chunksByCommand.clear();
+    return Optional.of(transfer.mail);
+  }
+
+  /** Drops the chunks collected so far, e.g. after RSET. */
+  synchronized void discard(RbelElement command) {
+    MailConnection.of(command)
+        .map(transfersByConnection::get)
+        .ifPresent(transfer -> transfer.chunksByCommand.clear());
+  }
+
+  private static RbelContent concatenate(Collection<RbelContent> chunks) {
+    // RbelContent cannot be composed of views onto other contents, so every chunk is copied once
+    var parts = chunks.stream().filter(c -> !c.isEmpty()).map(RbelContent::toByteArray).toList();
+    if (parts.isEmpty()) {
+      return RbelContent.of(new byte[0]);
+    }
+    return RbelContent.builder().content(parts).build();
+  }
+
+  /**
+   * The chunks of the mail currently sent on a connection, the commands of the mails completed on it
+   * and the last mail. Only the UUIDs of the most recent completed commands are kept.
+   */
+  private static final class Transfer {
+    private final Map<String, RbelContent> chunksByCommand = new LinkedHashMap<>();
+    private final Set<String> completedCommands =
+        Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_COMPLETED_COMMANDS;
+              }
+            });
+    private String completedBy;
+    private RbelContent mail;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.smtp;
+
+import static de.gematik.rbellogger.util.EmailConversionUtils.CRLF_BYTES;
+
+import de.gematik.rbellogger.util.RbelContent;
+import java.io.ByteArrayOutputStream;
+import java.util.Optional;
+
+/**
+ * Parses an SMTP reply (RFC 5321, section 4.2) from the start of a content. The reply lines are
+ * read byte by byte until the last line of the reply, bytes following the reply are not touched.
+ *
+ * <pre>
+ * &lt;status&gt;[ &lt;text&gt;]CRLF               single line reply
+ * &lt;status&gt;-&lt;text&gt;CRLF ... &lt;status&gt; &lt;text&gt;CRLF   multiline reply
+ * </pre>
+ *
+ * Every line of a multiline reply has to repeat the status, the text of its last line must not be
+ * empty.
+ */
+class SmtpReplyParser {
+
+  private static final int STATUS_LENGTH = 3;
+  private static final byte[] CR_BYTES = {'\r'};
+
+  private SmtpReplyParser() {}
+
+  /**
+   * @param status the three digit reply code
+   * @param body the text of the reply, for multiline replies every line is terminated with CRLF
+   * @param length the number of bytes of the reply
+   */
+  record SmtpReply(RbelContent status, Optional<RbelContent> body, int length) {}
+
+  static Optional<SmtpReply> parse(RbelContent content) {
+    if (content.size() <= RbelSmtpResponseConverter.MIN_SMTP_RESPONSE_LENGTH
+        || !isStatus(content, 0)) {
+      return Optional.empty();
+    }
+    var status = content.subArray(0, STATUS_LENGTH);
+    return switch (content.get(STATUS_LENGTH)) {
+      case '\r' ->
+          content.get(STATUS_LENGTH + 1) == '\n'
+              ? Optional.of(new SmtpReply(status, Optional.empty(), STATUS_LENGTH + 2))
+              : Optional.empty();
+      case ' ' -> parseSingleLineReply(content, status);
+      case '-' -> parseMultilineReply(content, status);
+      default -> Optional.empty();
+    };
+  }
+
+  private static Optional<SmtpReply> parseSingleLineReply(
+      RbelContent content, RbelContent status) {
+    int textStart = STATUS_LENGTH + 1;
+    int textEnd = findTextEnd(content, textStart);
+    if (textEnd <= textStart) {
+      return Optional.empty();
+    }
+    var text = content.subArray(textStart, textEnd);
+    return Optional.of(new SmtpReply(status, Optional.of(text), textEnd + CRLF_BYTES.length));
+  }
+
+  private static Optional<SmtpReply> parseMultilineReply(
+      RbelContent content, RbelContent status) {
+    var body = new ByteArrayOutputStream();
+    int lineStart = 0;
+    while (true) {
+      if (lineStart + STATUS_LENGTH >= content.size() || !hasSameStatus(content, lineStart)) {
+        return Optional.empty();
+      }
+      byte separator = content.get(lineStart + STATUS_LENGTH);
+      if (separator != '-' && separator != ' ') {
+        return Optional.empty();
+      }
+      int textStart = lineStart + STATUS_LENGTH + 1;
+      int textEnd = findTextEnd(content, textStart);
+      if (textEnd < 0) {
+        return Optional.empty();
+      }
+      body.writeBytes(content.toByteArray(textStart, textEnd));
+      body.writeBytes(CRLF_BYTES);
+      lineStart = textEnd + CRLF_BYTES.length;
+      if (separator == ' ') {
+        if (textEnd == textStart) {
+          return Optional.empty();
+        }
+        // the line prefixes are cut off, so the text is no view of the content
+        var text = RbelContent.of(body.toByteArray());
+        return Optional.of(new SmtpReply(status, Optional.of(text), lineStart));
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the CRLF terminating the text which starts at the given index, or -1 if
+   * the line is incomplete or contains a CR which does not start a CRLF.
+   */
+  private static int findTextEnd(RbelContent content, int textStart) {
+    int textEnd = content.indexOf(CR_BYTES, textStart);
+    if (textEnd < 0 || textEnd + 1 >= content.size() || content.get(textEnd + 1) != '\n') {
+      return -1;
+    }
+    return textEnd;
+  }
+
+  private static boolean isStatus(RbelContent content, int offset) {
+    for (int i = offset; i < offset + STATUS_LENGTH; i++) {
+      byte b = content.get(i);
+      if (b < '0' || b > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasSameStatus(RbelContent content, int lineStart) {
+    for (int i = 0; i < STATUS_LENGTH; i++) {
+      if (content.get(lineStart + i) != content.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
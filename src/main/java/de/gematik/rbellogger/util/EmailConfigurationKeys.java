@@ -0,0 +1,83 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import de.gematik.rbellogger.facets.mime.RbelMimeParsingMode;
+import de.gematik.test.tiger.common.config.TigerTypedConfigurationKey;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/** Configuration keys which tune the parsing of mail protocols and mail contents. */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class EmailConfigurationKeys {
+
+  /**
+   * Selects how MIME messages are parsed. {@link RbelMimeParsingMode#DOM} builds a complete mime4j
+   * message first, {@link RbelMimeParsingMode#STREAMING} builds the Rbel tree directly from the
+   * mime4j token stream.
+   */
+  public static final TigerTypedConfigurationKey<RbelMimeParsingMode> MIME_PARSING_MODE =
+      new TigerTypedConfigurationKey<>(
+          "tiger.mail.mime.parsingMode", RbelMimeParsingMode.class, RbelMimeParsingMode.DOM);
+
+  /**
+   * The maximum nesting depth of MIME entities, counting nested messages, body parts and messages
+   * enveloped in signed or encrypted data. Deeper entities are not parsed. A negative value
+   * disables the limit.
+   */
+  public static final TigerTypedConfigurationKey<Integer> MIME_MAX_NESTING_DEPTH =
+      new TigerTypedConfigurationKey<>("tiger.mail.mime.maxNestingDepth", Integer.class, 32);
+
+  /**
+   * The maximum number of body parts parsed per multipart, further parts are skipped. A negative
+   * value disables the limit.
+   */
+  public static final TigerTypedConfigurationKey<Integer> MIME_MAX_PARTS =
+      new TigerTypedConfigurationKey<>("tiger.mail.mime.maxParts", Integer.class, 1000);
+
+  /**
+   * The maximum size of the header block of a MIME entity in kilobytes. Entities with larger
+   * headers are not parsed. A negative value disables the limit.
+   */
+  public static final TigerTypedConfigurationKey<Integer> MIME_MAX_HEADER_KB =
+      new TigerTypedConfigurationKey<>("tiger.mail.mime.maxHeaderKb", Integer.class, 1024);
+
+  /**
+   * The maximum number of kilobytes decoded from transfer encoded bodies per MIME message. Bodies
+   * exceeding it are kept encoded. A negative value disables the limit.
+   */
+  public static final TigerTypedConfigurationKey<Integer> MIME_MAX_DECODED_KB =
+      new TigerTypedConfigurationKey<>("tiger.mail.mime.maxDecodedKb", Integer.class, 512 * 1024);
+
+  /**
+   * The maximum size of CMS enveloped data in kilobytes which is decrypted. A negative value
+   * disables the limit.
+   */
+  public static final TigerTypedConfigurationKey<Integer> CMS_MAX_DECRYPTED_KB =
+      new TigerTypedConfigurationKey<>("tiger.mail.cms.maxDecryptedKb", Integer.class, 512 * 1024);
+
+  /**
+   * SMTP and POP3 sessions without messages for this many seconds are forgotten. Their next message
+   * is then handled like the first message of an unknown session.
+   */
+  public static final TigerTypedConfigurationKey<Integer> MAIL_SESSION_IDLE_TIMEOUT_SECONDS =
+      new TigerTypedConfigurationKey<>("tiger.mail.session.idleTimeoutSeconds", Integer.class, 600);
+}
@@ -23,6 +23,7 @@ package de.gematik.rbellogger.util;
 import de.gematik.rbellogger.RbelConversionExecutor;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.RbelMultiMap;
+import de.gematik.rbellogger.data.core.RbelLazyValueFacet;
 import de.gematik.rbellogger.data.core.RbelListFacet;
 import de.gematik.rbellogger.exceptions.RbelConversionException;
 import de.gematik.rbellogger.facets.mime.RbelMimeRecipientEmailFacet;
@@ -32,6 +33,7 @@ import de.gematik.rbellogger.renderer.RbelHtmlRenderingToolkit;
 import j2html.tags.ContainerTag;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -52,57 +54,72 @@ public class EmailConversionUtils {
   public static final byte[] CRLF_BYTES = CRLF.getBytes();
   public static final String CRLF_DOT_CRLF = CRLF + "." + CRLF;
   private static final byte[] DOT_BYTE = ".".getBytes();
+  private static final byte[] CRLF_DOT_BYTES = (CRLF + ".").getBytes();
   private static final String KOM_LE_SMIME_ATTRIBUTE_RECIPIENT_EMAILS = "1.2.276.0.76.4.173";
 
-  public static RbelElement createChildElement(RbelElement parent, String value) {
-    return new RbelElement(value.getBytes(StandardCharsets.UTF_8), parent);
+  /**
+   * Creates a child whose content is a view of the given part of the parent's content. Like an
+   * element created by {@link RbelElement#wrap}, its value is the content as string, which is only
+   * decoded when it is read.
+   */
+  public static RbelElement createChildElement(RbelElement parent, RbelContent value) {
+    return RbelElement.builder()
+        .content(value)
+        .parentNode(parent)
+        .build()
+        .addFacet(
+            new RbelLazyValueFacet<>(
+                () -> new String(value.toByteArray(), StandardCharsets.UTF_8)));
   }
 
   public static RbelElement parseMailBody(
-      RbelElement element, List<RbelContent> lines, int startLine) {
-    if (lines.size() > startLine + 1) {
-      var body = extractBodyAndRemoveStuffedDots(lines, startLine);
+      RbelElement element, MailLineIndex lines, int startLine) {
+    if (lines.lineCount() > startLine + 1) {
+      // last CRLF needs to be cut off because it belongs to the CRLF_DOT_CRLF sequence
+      int bodyEnd = lines.lineStart(lines.lineCount() - 1) - CRLF_BYTES.length;
+      var body = removeStuffedDots(lines.getContent(), lines.lineStart(startLine), bodyEnd);
       return RbelElement.builder().content(body).parentNode(element).build();
     }
     return null;
   }
 
-  public static RbelContent removeStuffedDot(RbelContent line) {
-    return line.startsWith(DOT_BYTE) ? line.subArray(1, line.size()) : line;
-  }
-
-  private static RbelContent extractBodyAndRemoveStuffedDots(
-      List<RbelContent> lines, int startLine) {
-    RbelContent baseContent = lines.get(0).getBaseContent();
-    assert lines.stream().allMatch(line -> line.getBaseContent() == baseContent);
-    var bodyLines =
-        getMiddleLines(lines, startLine).map(EmailConversionUtils::removeStuffedDot).toList();
-    int bodyLength = computeTotalLength(bodyLines.stream());
-    int originalLength = computeTotalLength(getMiddleLines(lines, startLine));
-    if (bodyLength == originalLength) {
-      // no stuffed dots found ==> we can reference the original content
-      int firstLineLength = lines.get(0).size();
-      return baseContent.subArray(
-          firstLineLength, firstLineLength + originalLength - CRLF_BYTES.length);
+  /**
+   * Removes the dots stuffed at the line begins of the body between {@code from} and {@code to} in
+   * a single pass over the content. Without stuffed dots the original content is referenced and
+   * nothing is copied. With at least one stuffed dot the body is copied once: the segments between
+   * the dots are copied into the chunks of a new content.
+   */
+  public static RbelContent removeStuffedDots(RbelContent content, int from, int to) {
+    int dot = content.startsWith(DOT_BYTE, from) ? from : findStuffedDot(content, from, to);
+    if (dot < 0) {
+      return content.subArray(from, to);
     }
-    return mergeLines(bodyLines);
-  }
-
-  private static Integer computeTotalLength(Stream<RbelContent> bodyLinesStream) {
-    return bodyLinesStream.map(RbelContent::size).reduce(0, Integer::sum);
+    List<byte[]> segments = new ArrayList<>();
+    int segmentStart = from;
+    while (dot >= 0) {
+      addSegment(segments, content, segmentStart, dot);
+      segmentStart = dot + DOT_BYTE.length;
+      dot = findStuffedDot(content, segmentStart, to);
+    }
+    addSegment(segments, content, segmentStart, to);
+    if (segments.isEmpty()) {
+      return RbelContent.of(new byte[0]);
+    }
+    return RbelContent.builder().content(segments).build();
   }
 
-  private static Stream<RbelContent> getMiddleLines(List<RbelContent> lines, int startLine) {
-    return lines.stream().skip(startLine).limit(lines.size() - 1L - startLine);
+  private static int findStuffedDot(RbelContent content, int from, int to) {
+    int index = content.indexOf(CRLF_DOT_BYTES, from);
+    if (index < 0 || index + CRLF_DOT_BYTES.length > to) {
+      return -1;
+    }
+    return index + CRLF_BYTES.length;
   }
 
-  public static RbelContent mergeLines(List<RbelContent> lines) {
-    RbelContent content =
-        RbelContent.builder()
-            .content(lines.stream().map(RbelContent::toByteArray).toList())
-            .build();
-    // last CRLF needs to be cut off because it belongs to the CRLF_DOT_CRLF sequence
-    return content.subArray(0, content.size() - CRLF_BYTES.length);
+  private static void addSegment(List<byte[]> segments, RbelContent content, int from, int to) {
+    if (to > from) {
+      segments.add(content.toByteArray(from, to));
+    }
   }
 
   public static String duplicateDotsAtLineBegins(String input) {
@@ -0,0 +1,143 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Recognizes the command at the start of an SMTP or POP3 message. The command names are hashed
+ * once into a small open-addressing table, a message is matched by reading its first bytes from the
+ * content directly, without copying them into a string. Elements which are no command, e.g. server
+ * responses, are rejected after a few bytes and without an exception.
+ *
+ * <p>As with a tokenizer, leading whitespace is skipped and the command ends at whitespace or at
+ * the end of the window. The comparison is case-insensitive for ASCII letters.
+ *
+ * @param <E> the enum of the commands, their names consist of at most four letters
+ */
+public final class MailCommandRecognizer<E extends Enum<E>> {
+
+  private static final int MAX_COMMAND_LENGTH = Integer.BYTES;
+  private static final int EMPTY_SLOT = 0;
+
+  private final int window;
+  private final int[] keys;
+  private final Optional<E>[] commands;
+  private final int mask;
+
+  /**
+   * @param commandType the enum of the commands
+   * @param window the number of leading bytes the command has to be found in, shorter contents are
+   *     rejected
+   */
+  @SuppressWarnings("unchecked")
+  public MailCommandRecognizer(Class<E> commandType, int window) {
+    var constants = commandType.getEnumConstants();
+    int size = Integer.highestOneBit(constants.length * 4 - 1) << 1;
+    this.window = window;
+    this.keys = new int[size];
+    this.commands = new Optional[size];
+    this.mask = size - 1;
+    Arrays.fill(commands, Optional.empty());
+    for (E constant : constants) {
+      int key = keyOf(constant.name());
+      int slot = slotOf(key);
+      while (keys[slot] != EMPTY_SLOT) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      commands[slot] = Optional.of(constant);
+    }
+  }
+
+  /** Returns the command the content starts with. */
+  public Optional<E> recognize(RbelContent content) {
+    if (content.size() < window) {
+      return Optional.empty();
+    }
+    int position = 0;
+    while (position < window && isDelimiter(content.get(position))) {
+      position++;
+    }
+    int key = 0;
+    int length = 0;
+    for (; position < window; position++) {
+      byte b = content.get(position);
+      if (isDelimiter(b)) {
+        break;
+      }
+      int letter = toUpperCaseLetter(b);
+      if (letter < 0 || length == MAX_COMMAND_LENGTH) {
+        return Optional.empty();
+      }
+      key = key << Byte.SIZE | letter;
+      length++;
+    }
+    return length == 0 ? Optional.empty() : lookup(key);
+  }
+
+  private Optional<E> lookup(int key) {
+    int slot = slotOf(key);
+    while (keys[slot] != EMPTY_SLOT) {
+      if (keys[slot] == key) {
+        return commands[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return Optional.empty();
+  }
+
+  private int slotOf(int key) {
+    // Fibonacci hashing spreads the packed letters over the table
+    return ((key * 0x9E3779B9) >>> 16) & mask;
+  }
+
+  private static int keyOf(String name) {
+    if (name.isEmpty() || name.length() > MAX_COMMAND_LENGTH) {
+      throw new IllegalArgumentException("Unsupported command name " + name);
+    }
+    int key = 0;
+    for (int i = 0; i < name.length(); i++) {
+      int letter = toUpperCaseLetter((byte) name.charAt(i));
+      if (letter < 0) {
+        throw new IllegalArgumentException("Unsupported command name " + name);
+      }
+      key = key << Byte.SIZE | letter;
+    }
+    return key;
+  }
+
+  private static int toUpperCaseLetter(byte b) {
+    if (b >= 'A' && b <= 'Z') {
+      return b;
+    }
+    if (b >= 'a' && b <= 'z') {
+      return b - ('a' - 'A');
+    }
+    return -1;
+  }
+
+  // the default delimiters of a StringTokenizer
+  private static boolean isDelimiter(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+  }
+}
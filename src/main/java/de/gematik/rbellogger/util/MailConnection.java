@@ -0,0 +1,51 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.core.RbelTcpIpMessageFacet;
+import java.util.Optional;
+
+/**
+ * The TCP connection a mail protocol message was sent on, in the direction it was sent.
+ *
+ * @param sender the address of the sender
+ * @param receiver the address of the receiver
+ */
+public record MailConnection(String sender, String receiver) {
+
+  public static Optional<MailConnection> of(RbelElement message) {
+    return message
+        .getFacet(RbelTcpIpMessageFacet.class)
+        .filter(facet -> facet.getSender() != null && facet.getReceiver() != null)
+        .map(
+            facet ->
+                new MailConnection(
+                    facet.getSender().getRawStringContent(),
+                    facet.getReceiver().getRawStringContent()))
+        .filter(connection -> connection.sender != null && connection.receiver != null);
+  }
+
+  /** The same connection for messages sent in both directions. */
+  public MailConnection undirected() {
+    return sender.compareTo(receiver) <= 0 ? this : new MailConnection(receiver, sender);
+  }
+}
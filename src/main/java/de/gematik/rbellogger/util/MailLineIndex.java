@@ -0,0 +1,98 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import java.util.Arrays;
+
+/**
+ * The offsets of the CRLF terminated lines of a mail protocol message. The index is computed while
+ * a message is framed and is not kept on the element afterwards, so its offsets don't outlive the
+ * conversion. Lines are only materialized as views onto the content when they are accessed.
+ */
+public final class MailLineIndex {
+
+  private final RbelContent content;
+  // lineStarts[i] is the offset of line i, the last entry is the size of the content
+  private final int[] lineStarts;
+
+  private MailLineIndex(RbelContent content, int[] lineStarts) {
+    this.content = content;
+    this.lineStarts = lineStarts;
+  }
+
+  public static MailLineIndex of(RbelContent content) {
+    return new MailLineIndex(content, computeLineStarts(content));
+  }
+
+  private static int[] computeLineStarts(RbelContent content) {
+    int[] lineStarts = new int[16];
+    int lineCount = 0;
+    int lineStart = 0;
+    while (lineStart < content.size()) {
+      if (lineCount + 1 >= lineStarts.length) {
+        lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+      }
+      lineStarts[lineCount++] = lineStart;
+      int lineEnd = content.indexOf(EmailConversionUtils.CRLF_BYTES, lineStart);
+      lineStart =
+          lineEnd < 0 ? content.size() : lineEnd + EmailConversionUtils.CRLF_BYTES.length;
+    }
+    lineStarts[lineCount] = content.size();
+    return Arrays.copyOf(lineStarts, lineCount + 1);
+  }
+
+  public RbelContent getContent() {
+    return content;
+  }
+
+  public int lineCount() {
+    return lineStarts.length - 1;
+  }
+
+  public int lineStart(int line) {
+    return lineStarts[line];
+  }
+
+  /** The offset behind the line, including its CRLF. */
+  public int lineEnd(int line) {
+    return lineStarts[line + 1];
+  }
+
+  public RbelContent line(int line) {
+    return content.subArray(lineStart(line), lineEnd(line));
+  }
+
+  /** The line without its terminating CRLF. */
+  public RbelContent lineWithoutCrlf(int line) {
+    int end = lineEnd(line);
+    if (end - lineStart(line) >= EmailConversionUtils.CRLF_BYTES.length
+        && content.startsWith(
+            EmailConversionUtils.CRLF_BYTES, end - EmailConversionUtils.CRLF_BYTES.length)) {
+      end -= EmailConversionUtils.CRLF_BYTES.length;
+    }
+    return content.subArray(lineStart(line), end);
+  }
+
+  public boolean lineStartsWith(int line, byte[] prefix) {
+    return lineEnd(line) - lineStart(line) >= prefix.length
+        && content.startsWith(prefix, lineStart(line));
+  }
+}
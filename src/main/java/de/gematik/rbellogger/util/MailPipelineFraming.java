@@ -0,0 +1,174 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import de.gematik.rbellogger.data.RbelElement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Frames the commands of a pipelined batch, e.g. MAIL FROM, several RCPT TO and DATA (SMTP, RFC
+ * 2920) or a sequence of RETR and DELE (POP3, RFC 2449) sent in one TCP segment. The converter
+ * recognizes one command per element and the remaining bytes of the batch are converted in the
+ * following rounds. The command lines of the batch are located in a single scan when its first
+ * command is recognized, the following rounds take their frame from here instead of searching the
+ * line end and the previous message again.
+ *
+ * <p>The remainder of a batch is the element which follows the command converted last on the same
+ * connection. A batch is therefore kept per connection together with the UUID of that command and
+ * is dropped by the next element which does not start with the framed command line.
+ */
+public class MailPipelineFraming {
+
+  private static final int MAX_TRACKED_CONNECTIONS = 10_000;
+
+  // tests a command line including its CRLF
+  private final Predicate<RbelContent> isSingleLineCommand;
+
+  /** The batches in the order of their last use, the least recently used one is evicted. */
+  private final Map<MailConnection, Batch> batchByConnection =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MailConnection, Batch> eldest) {
+          return size() > MAX_TRACKED_CONNECTIONS;
+        }
+      };
+
+  public MailPipelineFraming(Predicate<RbelContent> isSingleLineCommand) {
+    this.isSingleLineCommand = isSingleLineCommand;
+  }
+
+  /**
+   * @param length the length of the next command of the batch
+   */
+  public record Frame(int length) {}
+
+  /** Returns the frame of the next command if the element holds the remainder of a batch. */
+  public Optional<Frame> nextFrame(RbelElement element) {
+    var connection = MailConnection.of(element);
+    if (connection.isEmpty()) {
+      return Optional.empty();
+    }
+    synchronized (batchByConnection) {
+      var batch = batchByConnection.get(connection.get());
+      if (batch == null || batch.lastCommandUuid().equals(element.getUuid())) {
+        // the command converted last is converted again, it is framed on its own
+        return Optional.empty();
+      }
+      if (batch.isContinuedBy(element.getContent())) {
+        return Optional.of(new Frame(batch.lineEnds()[0]));
+      }
+      batchByConnection.remove(connection.get());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Records that the command used the first bytes of its element. Command lines following it in
+   * the element are framed, unless they are already known from the batch the command belongs to.
+   */
+  public void recordCommand(RbelElement command, int usedBytes, boolean isPartOfBatch) {
+    var connection = MailConnection.of(command);
+    if (connection.isEmpty()) {
+      return;
+    }
+    synchronized (batchByConnection) {
+      var batch = isPartOfBatch ? batchByConnection.get(connection.get()) : null;
+      var next =
+          batch != null
+              ? batch.advance(command, usedBytes)
+              : Batch.frame(command, usedBytes, isSingleLineCommand);
+      if (next.isPresent()) {
+        batchByConnection.put(connection.get(), next.get());
+      } else {
+        batchByConnection.remove(connection.get());
+      }
+    }
+  }
+
+  /**
+   * @param lastCommandUuid the UUID of the command converted last
+   * @param lineEnds the ends of the remaining command lines, relative to the remainder
+   * @param lines the command lines of the batch which followed its first command
+   * @param start the index of the remainder in the lines
+   */
+  private record Batch(String lastCommandUuid, int[] lineEnds, byte[] lines, int start) {
+
+    static Optional<Batch> frame(
+        RbelElement command, int usedBytes, Predicate<RbelContent> isSingleLineCommand) {
+      var content = command.getContent();
+      int[] lineEnds = new int[8];
+      int count = 0;
+      int lineStart = usedBytes;
+      while (lineStart < content.size()) {
+        int lineEnd = content.indexOf(EmailConversionUtils.CRLF_BYTES, lineStart);
+        if (lineEnd < 0) {
+          break;
+        }
+        lineEnd += EmailConversionUtils.CRLF_BYTES.length;
+        if (!isSingleLineCommand.test(content.subArray(lineStart, lineEnd))) {
+          break;
+        }
+        lineStart = lineEnd;
+        if (count == lineEnds.length) {
+          lineEnds = Arrays.copyOf(lineEnds, count * 2);
+        }
+        lineEnds[count++] = lineStart - usedBytes;
+      }
+      if (count == 0) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          new Batch(
+              command.getUuid(),
+              Arrays.copyOf(lineEnds, count),
+              content.toByteArray(usedBytes, lineStart),
+              0));
+    }
+
+    Optional<Batch> advance(RbelElement command, int usedBytes) {
+      if (lineEnds.length == 1) {
+        return Optional.empty();
+      }
+      int[] remaining = new int[lineEnds.length - 1];
+      for (int i = 0; i < remaining.length; i++) {
+        remaining[i] = lineEnds[i + 1] - usedBytes;
+      }
+      return Optional.of(new Batch(command.getUuid(), remaining, lines, start + usedBytes));
+    }
+
+    /** Whether the content holds the remaining lines and starts with the next framed line. */
+    boolean isContinuedBy(RbelContent content) {
+      if (content.size() < lineEnds[lineEnds.length - 1]) {
+        return false;
+      }
+      for (int i = 0; i < lineEnds[0]; i++) {
+        if (content.get(i) != lines[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.facets.pop3.RbelPop3MailboxIndexFacet;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import lombok.Getter;
+
+/**
+ * The protocol state of an SMTP or POP3 session on one TCP connection. The mail converters record
+ * every message they recognize, so the state of the session is looked up instead of searched in
+ * the previous messages of the connection. Sessions are managed by {@link MailSessions}.
+ *
+ * <p>A session does not keep messages alive: the last message is remembered by its UUID and the
+ * pending commands, which are needed for pairing, are only weakly referenced.
+ */
+public class MailSession {
+
+  public enum Protocol {
+    SMTP,
+    POP3
+  }
+
+  @Getter private final Protocol protocol;
+  private final Deque<WeakReference<RbelElement>> pendingCommands = new ArrayDeque<>();
+  private String lastMessageUuid;
+  private boolean greetingSeen;
+  private boolean quitSent;
+  private boolean ended;
+  private RbelPop3MailboxIndexFacet mailboxIndex;
+  private long lastActivityMillis;
+
+  MailSession(Protocol protocol) {
+    this.protocol = protocol;
+    this.lastActivityMillis = System.currentTimeMillis();
+  }
+
+  /** Whether the server greeting was sent. A client only sends commands after the greeting. */
+  public synchronized boolean isGreetingSeen() {
+    return greetingSeen;
+  }
+
+  /** The oldest command which has not been answered yet. */
+  public synchronized Optional<RbelElement> getOldestPendingCommand() {
+    return Optional.ofNullable(pendingCommands.peekFirst()).map(WeakReference::get);
+  }
+
+  /** The command sent last if it has not been answered yet. */
+  public synchronized Optional<RbelElement> getNewestPendingCommand() {
+    return Optional.ofNullable(pendingCommands.peekLast()).map(WeakReference::get);
+  }
+
+  /** The messages of the POP3 mailbox as far as they were listed by LIST or UIDL. */
+  public synchronized Optional<RbelPop3MailboxIndexFacet> getMailboxIndex() {
+    return Optional.ofNullable(mailboxIndex);
+  }
+
+  public synchronized void updateMailboxIndex(RbelPop3MailboxIndexFacet listing) {
+    mailboxIndex = mailboxIndex == null ? listing : mailboxIndex.mergedWith(listing);
+  }
+
+  synchronized boolean isLastMessage(RbelElement message) {
+    return message.getUuid().equals(lastMessageUuid);
+  }
+
+  /** Whether the session has not ended and recorded a message since the given time. */
+  synchronized boolean isActiveSince(long millis) {
+    return !ended && lastActivityMillis >= millis;
+  }
+
+  synchronized void recordCommand(RbelElement command, boolean isQuit) {
+    if (isLastMessage(command)) {
+      return;
+    }
+    touch(command);
+    greetingSeen = true;
+    pendingCommands.addLast(new WeakReference<>(command));
+    quitSent |= isQuit;
+  }
+
+  /**
+   * The session ends with the response to the last pending command after QUIT.
+   *
+   * @return whether the session ended
+   */
+  synchronized boolean recordResponse(RbelElement response) {
+    if (isLastMessage(response)) {
+      return ended;
+    }
+    touch(response);
+    greetingSeen = true;
+    pendingCommands.pollFirst();
+    ended = quitSent && pendingCommands.isEmpty();
+    return ended;
+  }
+
+  private void touch(RbelElement message) {
+    lastMessageUuid = message.getUuid();
+    lastActivityMillis = System.currentTimeMillis();
+  }
+}
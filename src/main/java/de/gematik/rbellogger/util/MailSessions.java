@@ -0,0 +1,124 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import de.gematik.rbellogger.RbelConversionExecutor;
+import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.key.RbelKeyManager;
+import de.gematik.rbellogger.util.MailSession.Protocol;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SMTP and POP3 sessions of the connections of one RbelLogger, keyed by connection. A session
+ * ends with the response to QUIT or when it was idle for {@link
+ * EmailConfigurationKeys#MAIL_SESSION_IDLE_TIMEOUT_SECONDS}. Idle sessions are dropped when they
+ * are looked up and by a sweep over all sessions at most once per timeout.
+ */
+public class MailSessions {
+
+  // the key manager is the state a conversion shares with all converters of its RbelLogger
+  private static final Map<RbelKeyManager, MailSessions> SESSIONS_BY_LOGGER =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final Map<MailConnection, MailSession> sessionByConnection = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweepMillis = new AtomicLong();
+
+  MailSessions() {}
+
+  /** Returns the sessions of the RbelLogger the element is converted by. */
+  public static MailSessions of(RbelConversionExecutor context) {
+    return SESSIONS_BY_LOGGER.computeIfAbsent(
+        context.getRbelKeyManager(), keyManager -> new MailSessions());
+  }
+
+  /** Returns the session of the connection the message was sent on. */
+  public Optional<MailSession> find(RbelElement message) {
+    var connection = MailConnection.of(message).map(MailConnection::undirected);
+    if (connection.isEmpty()) {
+      return Optional.empty();
+    }
+    long now = System.currentTimeMillis();
+    long timeoutMillis = idleTimeoutMillis();
+    long idleSince = now - timeoutMillis;
+    sweepIdleSessions(now, now + timeoutMillis, idleSince);
+    var session = sessionByConnection.get(connection.get());
+    if (session != null && !session.isActiveSince(idleSince)) {
+      sessionByConnection.remove(connection.get(), session);
+      return Optional.empty();
+    }
+    return Optional.ofNullable(session);
+  }
+
+  /** Records a command. Without a session of its connection, a new session starts with it. */
+  public void recordCommand(
+      Optional<MailSession> session, RbelElement command, Protocol protocol, boolean isQuit) {
+    session
+        .or(() -> startSession(command, protocol))
+        .ifPresent(current -> current.recordCommand(command, isQuit));
+  }
+
+  /**
+   * Records a response. Without a session of its connection, a new session starts with it. The
+   * session ends with the response to QUIT.
+   *
+   * @return the session the response was recorded in
+   */
+  public Optional<MailSession> recordResponse(
+      Optional<MailSession> session, RbelElement response, Protocol protocol) {
+    var current = session.or(() -> startSession(response, protocol));
+    current
+        .filter(s -> s.recordResponse(response))
+        .ifPresent(
+            ended ->
+                MailConnection.of(response)
+                    .ifPresent(
+                        connection -> sessionByConnection.remove(connection.undirected(), ended)));
+    return current;
+  }
+
+  private Optional<MailSession> startSession(RbelElement message, Protocol protocol) {
+    return MailConnection.of(message)
+        .map(
+            connection -> {
+              var session = new MailSession(protocol);
+              sessionByConnection.put(connection.undirected(), session);
+              return session;
+            });
+  }
+
+  private void sweepIdleSessions(long now, long nextSweep, long idleSince) {
+    long sweepDue = nextSweepMillis.get();
+    if (now >= sweepDue && nextSweepMillis.compareAndSet(sweepDue, nextSweep)) {
+      sessionByConnection.values().removeIf(session -> !session.isActiveSince(idleSince));
+    }
+  }
+
+  private static long idleTimeoutMillis() {
+    return TimeUnit.SECONDS.toMillis(
+        EmailConfigurationKeys.MAIL_SESSION_IDLE_TIMEOUT_SECONDS.getValueOrDefault());
+  }
+}
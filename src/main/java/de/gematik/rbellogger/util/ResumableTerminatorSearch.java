@@ -0,0 +1,103 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import de.gematik.rbellogger.data.RbelElement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Searches the terminator of a message (e.g. the CRLF.CRLF ending SMTP DATA) in content which
+ * grows between conversion attempts. For every connection it remembers how far the previous
+ * attempt searched, so the next attempt only searches the bytes which arrived since then. The
+ * previous progress is only used if the new content is at least as long and holds the same bytes
+ * right before the point where the previous attempt stopped. This fixed-size window is compared
+ * instead of the whole prefix, so an attempt never reads the bytes searched before again.
+ */
+public class ResumableTerminatorSearch {
+
+  /** The number of bytes before the end of the searched content compared on resumption. */
+  private static final int WINDOW_SIZE = 64;
+
+  private static final int MAX_TRACKED_CONNECTIONS = 10_000;
+
+  private final byte[] terminator;
+
+  /** The progress in the order of its last use, the least recently used one is evicted. */
+  private final Map<MailConnection, Progress> progressByConnection =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MailConnection, Progress> eldest) {
+          return size() > MAX_TRACKED_CONNECTIONS;
+        }
+      };
+
+  public ResumableTerminatorSearch(byte[] terminator) {
+    this.terminator = terminator.clone();
+  }
+
+  /**
+   * @return the index of the first terminator in the content of the element or -1
+   */
+  public int indexOf(RbelElement element, RbelContent content) {
+    var connection = MailConnection.of(element);
+    if (connection.isEmpty()) {
+      return content.indexOf(terminator);
+    }
+    int searched = resumableFrom(connection.get(), content);
+    // a terminator may be split between the searched and the new bytes
+    int index = content.indexOf(terminator, Math.max(0, searched - terminator.length + 1));
+    synchronized (progressByConnection) {
+      if (index >= 0) {
+        progressByConnection.remove(connection.get());
+      } else {
+        progressByConnection.put(connection.get(), Progress.of(content));
+      }
+    }
+    return index;
+  }
+
+  private int resumableFrom(MailConnection connection, RbelContent content) {
+    Progress progress;
+    synchronized (progressByConnection) {
+      progress = progressByConnection.get(connection);
+    }
+    return progress != null && progress.isExtendedBy(content) ? progress.searchedUpTo() : 0;
+  }
+
+  /**
+   * @param searchedUpTo the length of the content searched by the previous attempt
+   * @param window the last bytes of this content, at most {@link #WINDOW_SIZE}
+   */
+  private record Progress(int searchedUpTo, byte[] window) {
+
+    static Progress of(RbelContent content) {
+      int size = content.size();
+      return new Progress(size, content.toByteArray(Math.max(0, size - WINDOW_SIZE), size));
+    }
+
+    boolean isExtendedBy(RbelContent content) {
+      return content.size() >= searchedUpTo
+          && Arrays.equals(window, content.toByteArray(searchedUpTo - window.length, searchedUpTo));
+    }
+  }
+}
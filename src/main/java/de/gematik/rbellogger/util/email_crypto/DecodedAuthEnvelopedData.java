@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util.email_crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.cms.AuthEnvelopedData;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.GCMParameters;
+import org.bouncycastle.asn1.cms.IssuerAndSerialNumber;
+import org.bouncycastle.asn1.cms.KeyTransRecipientInfo;
+import org.bouncycastle.asn1.cms.RecipientIdentifier;
+import org.bouncycastle.asn1.cms.RecipientInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cms.KeyTransRecipientId;
+
+/**
+ * The fields of an AuthEnvelopedData structure (RFC 5083) needed for decryption, read through the
+ * public ASN.1 classes of BouncyCastle from the already decoded {@link ContentInfo}.
+ *
+ * @param contentEncryptionAlgorithm the algorithm the content is encrypted with
+ * @param encryptedContent the encrypted content, without the MAC
+ * @param mac the message authentication code
+ * @param keyTransRecipients the recipients whose content-encryption key is transported
+ */
+record DecodedAuthEnvelopedData(
+    AlgorithmIdentifier contentEncryptionAlgorithm,
+    ASN1OctetString encryptedContent,
+    byte[] mac,
+    List<KeyTransRecipient> keyTransRecipients) {
+
+  record KeyTransRecipient(KeyTransRecipientId id, KeyTransRecipientInfo info) {}
+
+  static DecodedAuthEnvelopedData decode(ContentInfo contentInfo) {
+    try {
+      var authEnvelopedData = AuthEnvelopedData.getInstance(contentInfo.getContent());
+      var encryptedContentInfo = authEnvelopedData.getAuthEncryptedContentInfo();
+      return new DecodedAuthEnvelopedData(
+          encryptedContentInfo.getContentEncryptionAlgorithm(),
+          encryptedContentInfo.getEncryptedContent(),
+          authEnvelopedData.getMac().getOctets(),
+          decodeKeyTransRecipients(authEnvelopedData));
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      throw new RbelDecryptionException("This PKCS7-Content is no valid AuthEnvelopedData!", e);
+    }
+  }
+
+  private static List<KeyTransRecipient> decodeKeyTransRecipients(
+      AuthEnvelopedData authEnvelopedData) {
+    var recipients = new ArrayList<KeyTransRecipient>();
+    for (ASN1Encodable recipientInfo : authEnvelopedData.getRecipientInfos()) {
+      if (RecipientInfo.getInstance(recipientInfo).getInfo()
+          instanceof KeyTransRecipientInfo keyTransRecipientInfo) {
+        recipients.add(
+            new KeyTransRecipient(
+                toRecipientId(keyTransRecipientInfo.getRecipientIdentifier()),
+                keyTransRecipientInfo));
+      }
+    }
+    return recipients;
+  }
+
+  private static KeyTransRecipientId toRecipientId(RecipientIdentifier recipientIdentifier) {
+    if (recipientIdentifier.isTagged()) {
+      return new KeyTransRecipientId(
+          ASN1OctetString.getInstance(recipientIdentifier.getId()).getOctets());
+    }
+    var issuerAndSerialNumber = IssuerAndSerialNumber.getInstance(recipientIdentifier.getId());
+    return new KeyTransRecipientId(
+        issuerAndSerialNumber.getName(), issuerAndSerialNumber.getSerialNumber().getValue());
+  }
+
+  /** The nonce of the AES-GCM parameters (RFC 5084). */
+  byte[] nonce() {
+    try {
+      var nonce = GCMParameters.getInstance(contentEncryptionAlgorithm.getParameters()).getNonce();
+      if (nonce != null && nonce.length > 0) {
+        return nonce;
+      }
+    } catch (IllegalArgumentException e) {
+      // reported below
+    }
+    throw new RbelDecryptionException("This PKCS7-Content has not a valid nonce value!");
+  }
+
+  byte[] encryptedContentOctets() {
+    if (encryptedContent == null) {
+      throw new RbelDecryptionException("This PKCS7-Content has not a valid encrypted Key value!");
+    }
+    return encryptedContent.getOctets();
+  }
+}
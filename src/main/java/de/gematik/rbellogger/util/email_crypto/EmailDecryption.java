@@ -20,23 +20,17 @@
  */
 package de.gematik.rbellogger.util.email_crypto;
 
-import de.gematik.rbellogger.key.IdentityBackedRbelKey;
-import de.gematik.rbellogger.key.RbelKey;
 import de.gematik.rbellogger.key.RbelKeyManager;
 import de.gematik.rbellogger.util.RbelContent;
 import de.gematik.rbellogger.util.email_crypto.elliptic_curve.BcException;
 import de.gematik.rbellogger.util.email_crypto.elliptic_curve.ParseException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Field;
-import java.math.BigInteger;
 import java.security.*;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.MGF1ParameterSpec;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.Optional;
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
@@ -49,18 +43,10 @@ import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.lang3.ArrayUtils;
-import org.bouncycastle.asn1.ASN1Encodable;
-import org.bouncycastle.asn1.ASN1Primitive;
-import org.bouncycastle.asn1.ASN1Util;
-import org.bouncycastle.asn1.BERSequence;
-import org.bouncycastle.asn1.BERTaggedObject;
-import org.bouncycastle.asn1.BERTags;
-import org.bouncycastle.asn1.DEROctetString;
-import org.bouncycastle.asn1.DLSequence;
-import org.bouncycastle.asn1.DLTaggedObject;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.cms.ContentInfo;
 import org.bouncycastle.asn1.cms.KeyTransRecipientInfo;
-import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.cms.*;
 import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -73,43 +59,90 @@ public class EmailDecryption {
 
   public static Optional<byte[]> decrypt(RbelContent message, RbelKeyManager keyManager)
       throws CMSException {
-    var oAuthEnv = new CMSAuthEnvelopedData(message.toInputStream());
-    AlgorithmIdentifier algCms = getAlgorithm(oAuthEnv);
-    if (algCms.getAlgorithm().getId().equals(OID_AES256_GCM)) {
-      return decryptOidAes256Gcm(oAuthEnv, algCms, keyManager);
+    return decrypt(parse(message), keyManager);
+  }
+
+  /**
+   * Decodes the ASN.1 structure of the message once. The result is used for decryption as well as
+   * for reading the attributes and recipient infos.
+   */
+  public static CMSAuthEnvelopedData parse(RbelContent message) throws CMSException {
+    try (var asn1InputStream = new ASN1InputStream(message.toInputStream(), message.size())) {
+      var contentInfo = ContentInfo.getInstance(asn1InputStream.readObject());
+      if (contentInfo == null) {
+        throw new CMSException("No content found.");
+      }
+      return new CMSAuthEnvelopedData(contentInfo);
+    } catch (IOException | IllegalArgumentException | ClassCastException e) {
+      throw new CMSException("Malformed content: " + e.getMessage(), e);
     }
-    return decryptDefault(message.toInputStream(), keyManager);
   }
 
-  private static Optional<byte[]> decryptDefault(InputStream message, RbelKeyManager keyManager)
-      throws CMSException {
-    CMSEnvelopedData cmsEnvelopedData = new CMSEnvelopedData(message);
+  public static Optional<byte[]> decrypt(
+      CMSAuthEnvelopedData oAuthEnv, RbelKeyManager keyManager) throws CMSException {
+    var authEnvelopedData = DecodedAuthEnvelopedData.decode(oAuthEnv.toASN1Structure());
+    var algorithm = authEnvelopedData.contentEncryptionAlgorithm().getAlgorithm();
+    if (algorithm.getId().equals(OID_AES256_GCM)) {
+      return decryptWithRecipientKeys(
+          keyManager,
+          authEnvelopedData.keyTransRecipients().stream()
+              .map(DecodedAuthEnvelopedData.KeyTransRecipient::id)
+              .toList(),
+          keys -> decryptOidAes256Gcm(authEnvelopedData, keys));
+    }
+    CMSEnvelopedData cmsEnvelopedData = new CMSEnvelopedData(oAuthEnv.toASN1Structure());
     Collection<RecipientInformation> recipients =
         cmsEnvelopedData.getRecipientInfos().getRecipients();
-    return decryptIfKeyForRecipientFound(
-        recipients,
+    return decryptWithRecipientKeys(
         keyManager,
-        (recipient, privateKey) ->
-            recipient.getContent(
-                new JceKeyTransEnvelopedRecipient(privateKey)
-                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)));
+        recipients.stream()
+            .map(RecipientInformation::getRID)
+            .filter(KeyTransRecipientId.class::isInstance)
+            .map(KeyTransRecipientId.class::cast)
+            .toList(),
+        keys -> decryptDefault(recipients, keys));
   }
 
-  private static Optional<PrivateKey> findMatchingKey(
-      RbelKeyManager keyManager, KeyTransRecipientId id) {
-    return keyManager
-        .getAllKeys()
-        .filter(key -> serialNumberMatches(key, id.getSerialNumber()))
-        .findFirst()
-        .map(RbelKey::getKey)
-        .map(PrivateKey.class::cast);
+  private interface KeyedDecryption {
+    Optional<byte[]> decrypt(RecipientKeyIndex keys) throws CMSException;
   }
 
-  private static boolean serialNumberMatches(RbelKey key, BigInteger serialNumber) {
-    if (key.isPrivateKey() && key instanceof IdentityBackedRbelKey identityBackedKey) {
-      return serialNumber.equals(identityBackedKey.getCertificate().getSerialNumber());
+  private static Optional<byte[]> decryptWithRecipientKeys(
+      RbelKeyManager keyManager,
+      Collection<KeyTransRecipientId> recipients,
+      KeyedDecryption decryption)
+      throws CMSException {
+    var keys = RecipientKeyIndex.of(keyManager);
+    Optional<byte[]> plain;
+    try {
+      plain = decryption.decrypt(keys);
+    } catch (CMSException | RbelDecryptionException e) {
+      // the key may belong to an identity which has been replaced since the index was built
+      var refreshedKeys = keys.refreshed(keyManager);
+      if (refreshedKeys.isEmpty()) {
+        throw e;
+      }
+      return decryption.decrypt(refreshedKeys.get());
     }
-    return false;
+    if (plain.isEmpty()) {
+      // the identities may have changed since the index was built
+      var refreshedKeys = keys.refreshedAfterMiss(keyManager, recipients);
+      if (refreshedKeys.isPresent()) {
+        plain = decryption.decrypt(refreshedKeys.get());
+      }
+    }
+    return plain;
+  }
+
+  private static Optional<byte[]> decryptDefault(
+      Collection<RecipientInformation> recipients, RecipientKeyIndex keys) throws CMSException {
+    return decryptIfKeyForRecipientFound(
+        recipients,
+        keys,
+        (recipient, privateKey) ->
+            recipient.getContent(
+                new JceKeyTransEnvelopedRecipient(privateKey)
+                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)));
   }
 
   private interface DecryptFunction {
@@ -118,12 +151,12 @@ public class EmailDecryption {
 
   private static Optional<byte[]> decryptIfKeyForRecipientFound(
       Collection<RecipientInformation> recipients,
-      RbelKeyManager keyManager,
+      RecipientKeyIndex keys,
       DecryptFunction decryptFunction)
       throws CMSException {
     for (RecipientInformation recipient : recipients) {
       if (recipient.getRID() instanceof KeyTransRecipientId id) {
-        var privateKey = findMatchingKey(keyManager, id);
+        var privateKey = keys.find(id);
         if (privateKey.isPresent()) {
           return Optional.of(decryptFunction.decrypt(recipient, privateKey.get()));
         }
@@ -133,26 +166,25 @@ public class EmailDecryption {
   }
 
   private static Optional<byte[]> decryptOidAes256Gcm(
-      CMSAuthEnvelopedData oAuthEnv, AlgorithmIdentifier algorithm, RbelKeyManager keyManager)
-      throws CMSException {
-    var recipients = oAuthEnv.getRecipientInfos().getRecipients();
-    return decryptIfKeyForRecipientFound(
-        recipients,
-        keyManager,
-        (recipient, privateKey) ->
-            decryptOidAes256Gcm(
-                oAuthEnv, (KeyTransRecipientInformation) recipient, algorithm, privateKey));
+      DecodedAuthEnvelopedData authEnvelopedData, RecipientKeyIndex keys) {
+    for (var recipient : authEnvelopedData.keyTransRecipients()) {
+      var privateKey = keys.find(recipient.id());
+      if (privateKey.isPresent()) {
+        return Optional.of(
+            decryptOidAes256Gcm(authEnvelopedData, recipient.info(), privateKey.get()));
+      }
+    }
+    return Optional.empty();
   }
 
   private static byte[] decryptOidAes256Gcm(
-      CMSAuthEnvelopedData oAuthEnv,
-      KeyTransRecipientInformation recipient,
-      AlgorithmIdentifier authEncAlg,
+      DecodedAuthEnvelopedData authEnvelopedData,
+      KeyTransRecipientInfo recipient,
       PrivateKey privateKey) {
     byte[] plainSymKey = extractPlainSymKey(recipient, privateKey);
-    byte[] pNonceValue = extractNonceValue(authEncAlg);
-    byte[] pSymEncoded = extractEncKeyData(oAuthEnv);
-    byte[] pMac = oAuthEnv.getMac();
+    byte[] pNonceValue = authEnvelopedData.nonce();
+    byte[] pSymEncoded = authEnvelopedData.encryptedContentOctets();
+    byte[] pMac = authEnvelopedData.mac();
     if (checkExistenceOfPMacInEncValue(pSymEncoded, pMac)) {
       throw new RbelDecryptionException(
           "This PKCS7-Content does not contain the mac value in the encoded value!");
@@ -169,132 +201,20 @@ public class EmailDecryption {
     return Arrays.equals(subarraySymEncoded, pMac);
   }
 
-  private static byte[] extractNonceValue(AlgorithmIdentifier authEncAlg) {
-    DLSequence seq0 = (DLSequence) authEncAlg.getParameters();
-    for (int iIndex = 0; iIndex < seq0.size(); iIndex++) {
-      ASN1Encodable encTmp = seq0.getObjectAt(iIndex);
-      if (encTmp instanceof DEROctetString derOctetString) {
-        byte[] pNonceValue = derOctetString.getOctets();
-
-        if (pNonceValue == null || pNonceValue.length == 0) {
-          break;
-        }
-        return pNonceValue;
-      }
+  private static byte[] extractPlainSymKey(KeyTransRecipientInfo recipient, PrivateKey privateKey) {
+    var encKey = recipient.getEncryptedKey();
+    if (encKey == null) {
+      throw new RbelDecryptionException("Plain Symmetric Key could not be extracted");
     }
-    throw new RbelDecryptionException("This PKCS7-Content has not a valid nonce value!");
-  }
-
-  private static byte[] extractEncKeyData(final CMSAuthEnvelopedData oAuthEnv) {
-    try {
-      ContentInfo cInfo = oAuthEnv.toASN1Structure();
-      if (cInfo == null) return new byte[0];
-
-      if (cInfo.getContent() instanceof DLSequence seq) {
-        return extractEncKeyData(seq);
-      } else if (cInfo.getContent() instanceof BERSequence seq) {
-        return extractEncKeyData(seq);
-      } else {
-        throw new RbelDecryptionException(
-            "This PKCS7-Content has not a valid encrypted Key value!");
-      }
-    } catch (IOException ex) {
-      throw new RbelDecryptionException(ex.getMessage(), ex);
-    }
-  }
-
-  private static byte[] extractEncKeyData(BERSequence seq) throws IOException {
-    for (int i = 0; i < seq.size(); i++) {
-      ASN1Encodable encTmp = seq.getObjectAt(i);
-      if (encTmp instanceof BERSequence seq2) {
-        var bos = getAccumulatedOctets(seq2);
-        if (bos.isPresent()) {
-          return bos.get();
-        }
-      }
-    }
-    throw new RbelDecryptionException("Could not extract encoded key data");
-  }
-
-  private static Optional<byte[]> getAccumulatedOctets(BERSequence seq) throws IOException {
-    for (int i = 0; i < seq.size(); i++) {
-      ASN1Encodable encTmp2 = seq.getObjectAt(i);
-      if (encTmp2 instanceof org.bouncycastle.asn1.BERTaggedObject tagObj) {
-        return getAccumulatedOctets(tagObj);
-      }
-    }
-    return Optional.empty();
-  }
-
-  private static Optional<byte[]> getAccumulatedOctets(BERTaggedObject tagObj) throws IOException {
-    ASN1Primitive asn1Prim =
-        ASN1Util.parseContextBaseUniversal(
-                tagObj, tagObj.getTagNo(), tagObj.isExplicit(), BERTags.SEQUENCE)
-            .toASN1Primitive();
-
-    if (asn1Prim instanceof BERSequence berSeq) {
-      Enumeration<DEROctetString> berOcts = berSeq.getObjects();
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      while (berOcts.hasMoreElements()) {
-        var octets = berOcts.nextElement().getOctets();
-        bos.write(octets, 0, octets.length);
-      }
-      return Optional.of(bos.toByteArray());
+    if (privateKey.getAlgorithm().equals("EC")) {
+      return decryptTransportKeyEc(privateKey, encKey);
     } else {
-      return Optional.empty();
-    }
-  }
-
-  private static byte[] extractEncKeyData(DLSequence seq) {
-    for (int i = 0; i < seq.size(); i++) {
-      ASN1Encodable encTmp = seq.getObjectAt(i);
-      if (encTmp instanceof DLSequence seq2) {
-        for (int j = 0; j < seq2.size(); j++) {
-          ASN1Encodable encTmp2 = seq2.getObjectAt(j);
-          if (encTmp2 instanceof DLTaggedObject tagObj) {
-            return ((DEROctetString) tagObj.getBaseObject()).getOctets();
-          }
-        }
-      }
-    }
-    throw new RbelDecryptionException("This PKCS7-Content has not a valid encrypted Key value!");
-  }
-
-  private static AlgorithmIdentifier getAlgorithm(final CMSAuthEnvelopedData oAuthEnv) {
-    try {
-      Field recInfos = oAuthEnv.getClass().getDeclaredField("authEncAlg");
-      recInfos.setAccessible(true); // NOSONAR
-      return (AlgorithmIdentifier) recInfos.get(oAuthEnv);
-    } catch (NoSuchFieldException | SecurityException | IllegalAccessException ex) {
-      throw new RbelDecryptionException("Cannot extract algorithm", ex);
-    }
-  }
-
-  private static byte[] extractPlainSymKey(
-      KeyTransRecipientInformation recipient, PrivateKey privateKey) {
-    try {
-      if (recipient != null) {
-        Field recInfos = recipient.getClass().getDeclaredField("info");
-        recInfos.setAccessible(true); // NOSONAR
-        KeyTransRecipientInfo keyInfo = (KeyTransRecipientInfo) recInfos.get(recipient);
-        DEROctetString encKey = (DEROctetString) keyInfo.getEncryptedKey();
-
-        if (encKey != null) {
-          if (privateKey.getAlgorithm().equals("EC")) {
-            return decryptTransportKeyEc(privateKey, encKey);
-          } else {
-            return decryptTransportKeyRsa(privateKey, encKey);
-          }
-        }
-      }
-    } catch (NoSuchFieldException | IllegalAccessException e) {
-      throw new RbelDecryptionException("Plain Symmetric Key could not be extracted", e);
+      return decryptTransportKeyRsa(privateKey, encKey);
     }
-    throw new RbelDecryptionException("Plain Symmetric Key could not be extracted");
   }
 
   private static byte[] decryptTransportKeyRsa(
-      final PrivateKey privateKey, final DEROctetString encKey) {
+      final PrivateKey privateKey, final ASN1OctetString encKey) {
     try {
       AlgorithmParameterSpec spec =
           new OAEPParameterSpec(
@@ -317,7 +237,7 @@ public class EmailDecryption {
   }
 
   private static byte[] decryptTransportKeyEc(
-      final PrivateKey privateKey, final DEROctetString encKey) {
+      final PrivateKey privateKey, final ASN1OctetString encKey) {
     TransportKeyDecryptor transportKeyDecryptor = new TransportKeyDecryptor(privateKey);
     try {
       return transportKeyDecryptor.decryptTransportKey(encKey.getOctets());
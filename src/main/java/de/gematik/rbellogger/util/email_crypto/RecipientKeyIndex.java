@@ -0,0 +1,190 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util.email_crypto;
+
+import de.gematik.rbellogger.key.IdentityBackedRbelKey;
+import de.gematik.rbellogger.key.RbelKey;
+import de.gematik.rbellogger.key.RbelKeyManager;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cms.KeyTransRecipientId;
+
+/**
+ * The private keys of the identities in a {@link RbelKeyManager}, indexed by the CMS recipient
+ * identifiers (RFC 5652, section 6.2.1): issuer and serial number, or subject key identifier.
+ *
+ * <p>An index is an immutable snapshot of the keys of one key manager. A new snapshot is swapped in
+ * when the keys of the manager changed. The key manager does not report changes, so they are
+ * detected when a message is not decrypted:
+ *
+ * <ul>
+ *   <li>A recipient missed for the first time compares the keys of the manager with the snapshot
+ *       by identity. If nothing changed, the recipient is remembered as missed.
+ *   <li>A recipient already missed only compares the number of keys, until the snapshot is
+ *       replaced.
+ *   <li>A key which fails to decrypt may belong to an identity replaced under the same issuer and
+ *       serial number, so the keys are compared by identity again.
+ * </ul>
+ */
+@Slf4j
+final class RecipientKeyIndex {
+
+  private static final int MAX_MISSED_RECIPIENTS = 10_000;
+
+  private static final Map<RbelKeyManager, RecipientKeyIndex> INDEX_BY_KEY_MANAGER =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final List<RbelKey> keys;
+  private final Map<IssuerAndSerialNumber, PrivateKey> byIssuerAndSerialNumber = new HashMap<>();
+  private final Map<ByteBuffer, PrivateKey> bySubjectKeyIdentifier = new HashMap<>();
+  // serial numbers issued by a single CA only, for recipients identified without issuer
+  private final Map<BigInteger, PrivateKey> byUniqueSerialNumber = new HashMap<>();
+  // recipients without a key in this snapshot
+  private final Set<KeyTransRecipientId> missedRecipients = ConcurrentHashMap.newKeySet();
+
+  private record IssuerAndSerialNumber(X500Name issuer, BigInteger serialNumber) {}
+
+  private RecipientKeyIndex(RbelKeyManager keyManager) {
+    this.keys = keyManager.getAllKeys().toList();
+    Set<BigInteger> ambiguousSerialNumbers = new HashSet<>();
+    for (RbelKey key : keys) {
+      if (key.isPrivateKey()
+          && key instanceof IdentityBackedRbelKey identityBackedKey
+          && key.getKey() instanceof PrivateKey privateKey) {
+        add(identityBackedKey.getCertificate(), privateKey, ambiguousSerialNumbers);
+      }
+    }
+  }
+
+  static RecipientKeyIndex of(RbelKeyManager keyManager) {
+    return INDEX_BY_KEY_MANAGER.computeIfAbsent(keyManager, RecipientKeyIndex::new);
+  }
+
+  /**
+   * A new index if the keys of the manager may hold a key for one of the recipients which were not
+   * found in this snapshot. Otherwise the recipients are remembered as missed.
+   */
+  Optional<RecipientKeyIndex> refreshedAfterMiss(
+      RbelKeyManager keyManager, Collection<KeyTransRecipientId> recipients) {
+    boolean changed =
+        missedRecipients.containsAll(recipients)
+            ? keyManager.getAllKeys().count() != keys.size()
+            : !hasSameKeysAs(keyManager);
+    if (changed) {
+      return Optional.of(rebuild(keyManager));
+    }
+    if (missedRecipients.size() < MAX_MISSED_RECIPIENTS) {
+      missedRecipients.addAll(recipients);
+    }
+    return Optional.empty();
+  }
+
+  /** A new index if the keys of the manager are no longer the ones of this snapshot. */
+  Optional<RecipientKeyIndex> refreshed(RbelKeyManager keyManager) {
+    if (hasSameKeysAs(keyManager)) {
+      return Optional.empty();
+    }
+    return Optional.of(rebuild(keyManager));
+  }
+
+  private boolean hasSameKeysAs(RbelKeyManager keyManager) {
+    var currentKeys = keyManager.getAllKeys().iterator();
+    for (RbelKey key : keys) {
+      if (!currentKeys.hasNext() || currentKeys.next() != key) {
+        return false;
+      }
+    }
+    return !currentKeys.hasNext();
+  }
+
+  private static RecipientKeyIndex rebuild(RbelKeyManager keyManager) {
+    var index = new RecipientKeyIndex(keyManager);
+    INDEX_BY_KEY_MANAGER.put(keyManager, index);
+    return index;
+  }
+
+  private void add(
+      X509Certificate certificate, PrivateKey privateKey, Set<BigInteger> ambiguousSerialNumbers) {
+    var issuer = X500Name.getInstance(certificate.getIssuerX500Principal().getEncoded());
+    var serialNumber = certificate.getSerialNumber();
+    // the first key of an identity wins, as with a search through the keys
+    byIssuerAndSerialNumber.putIfAbsent(
+        new IssuerAndSerialNumber(issuer, serialNumber), privateKey);
+    if (!ambiguousSerialNumbers.contains(serialNumber)) {
+      var previous = byUniqueSerialNumber.putIfAbsent(serialNumber, privateKey);
+      if (previous != null && previous != privateKey) {
+        byUniqueSerialNumber.remove(serialNumber);
+        ambiguousSerialNumbers.add(serialNumber);
+      }
+    }
+    findSubjectKeyIdentifier(certificate)
+        .map(ByteBuffer::wrap)
+        .ifPresent(identifier -> bySubjectKeyIdentifier.putIfAbsent(identifier, privateKey));
+  }
+
+  Optional<PrivateKey> find(KeyTransRecipientId id) {
+    if (id.getSerialNumber() != null) {
+      if (id.getIssuer() != null) {
+        return Optional.ofNullable(
+            byIssuerAndSerialNumber.get(
+                new IssuerAndSerialNumber(id.getIssuer(), id.getSerialNumber())));
+      }
+      return Optional.ofNullable(byUniqueSerialNumber.get(id.getSerialNumber()));
+    }
+    return Optional.ofNullable(id.getSubjectKeyIdentifier())
+        .map(ByteBuffer::wrap)
+        .map(bySubjectKeyIdentifier::get);
+  }
+
+  private static Optional<byte[]> findSubjectKeyIdentifier(X509Certificate certificate) {
+    var extension = certificate.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+    if (extension == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(
+          SubjectKeyIdentifier.getInstance(ASN1OctetString.getInstance(extension).getOctets())
+              .getKeyIdentifier());
+    } catch (IllegalArgumentException e) {
+      log.debug(
+          "Ignoring malformed subject key identifier of {}",
+          certificate.getSubjectX500Principal());
+      return Optional.empty();
+    }
+  }
+}
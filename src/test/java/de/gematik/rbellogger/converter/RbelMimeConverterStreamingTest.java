@@ -0,0 +1,71 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.converter;
+
+import static de.gematik.rbellogger.data.RbelElementAssertion.assertThat;
+
+import de.gematik.rbellogger.facets.mime.RbelMimeParsingMode;
+import de.gematik.rbellogger.facets.mime.RbelMimeTruncatedFacet;
+import de.gematik.rbellogger.util.EmailConfigurationKeys;
+import de.gematik.test.tiger.common.config.TigerGlobalConfiguration;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Runs the complete {@link RbelMimeConverterTest} corpus against the streaming parser. */
+class RbelMimeConverterStreamingTest extends RbelMimeConverterTest {
+
+  @BeforeEach
+  void activateStreamingParser() {
+    EmailConfigurationKeys.MIME_PARSING_MODE.putValue(RbelMimeParsingMode.STREAMING);
+  }
+
+  @AfterEach
+  void resetConfiguration() {
+    TigerGlobalConfiguration.reset();
+  }
+
+  @Test
+  void shouldNotBufferBodyOfEncodedNestedMessageBeyondDecodedLimit() {
+    EmailConfigurationKeys.MIME_MAX_DECODED_KB.putValue(1);
+    final String nestedMessage =
+        "Content-Type: application/octet-stream\r\n\r\n" + "x".repeat(64 * 1024);
+    final String mimeMessage =
+        "Content-Type: message/rfc822\r\n"
+            + "Content-Transfer-Encoding: base64\r\n"
+            + "\r\n"
+            + Base64.getMimeEncoder()
+                .encodeToString(nestedMessage.getBytes(StandardCharsets.US_ASCII))
+            + "\r\n";
+
+    convertToRbelElement("+OK greeting\r\n");
+    final var body =
+        convertMessagePair("RETR 1\r\n", "+OK message follows\r\n" + mimeMessage + "\r\n.\r\n")
+            .findElement("$.pop3Body.mimeBody.mimeBody")
+            .orElseThrow();
+
+    assertThat(body).hasFacet(RbelMimeTruncatedFacet.class);
+    Assertions.assertThat(body.getContent().size()).isZero();
+  }
+}
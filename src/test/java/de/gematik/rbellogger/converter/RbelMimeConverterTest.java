@@ -26,15 +26,22 @@ import de.gematik.rbellogger.configuration.RbelConfiguration;
 import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.core.RbelNoteFacet;
 import de.gematik.rbellogger.facets.jackson.RbelJsonFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeBodyFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeContentTypeFacet;
+import de.gematik.rbellogger.facets.mime.RbelMimeTruncatedFacet;
 import de.gematik.rbellogger.initializers.RbelKeyFolderInitializer;
 import de.gematik.rbellogger.renderer.RbelHtmlRenderer;
+import de.gematik.rbellogger.util.EmailConfigurationKeys;
+import de.gematik.test.tiger.common.config.TigerGlobalConfiguration;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.stream.IntStream;
 import lombok.SneakyThrows;
 import org.apache.commons.io.FileUtils;
 import org.assertj.core.api.AbstractStringAssert;
@@ -94,6 +101,155 @@ class RbelMimeConverterTest extends AbstractResponseConverterTest {
         .hasStringContentEqualTo("bar");
   }
 
+  @Test
+  void shouldAddParsedContentTypeToMimeHeader() {
+    final byte[] mimeMessage = readMimeMessage("sampleMessages/sampleMail.txt");
+
+    convertToRbelElement("+OK greeting\r\n");
+    final var contentType =
+        convertPop3RetrResponse(getPop3Response(mimeMessage))
+            .findElement("$.pop3Body.mimeHeader")
+            .flatMap(header -> header.getFacet(RbelMimeContentTypeFacet.class))
+            .orElseThrow();
+
+    Assertions.assertThat(contentType.mimeType()).isEqualTo("multipart/mixed");
+    Assertions.assertThat(contentType.boundary()).contains("------------BL3hx4oLOfTW1BZku2TdrpFZ");
+    Assertions.assertThat(contentType.hasSmimeType("signed-data")).isFalse();
+  }
+
+  @Test
+  void shouldTruncatePartsExceedingLimits() {
+    EmailConfigurationKeys.MIME_MAX_PARTS.putValue(1);
+    EmailConfigurationKeys.MIME_MAX_NESTING_DEPTH.putValue(0);
+    try {
+      final byte[] mimeMessage = readMimeMessage("sampleMessages/sampleMail.txt");
+
+      convertToRbelElement("+OK greeting\r\n");
+      final var element = convertPop3RetrResponse(getPop3Response(mimeMessage));
+
+      assertThat(element)
+          .extractChildWithPath("$.pop3Body")
+          .hasChildWithPath("$.mimeBody.parts.0")
+          .doesNotHaveChildWithPath("$.mimeBody.parts.0.mimeHeader")
+          .doesNotHaveChildWithPath("$.mimeBody.parts.1");
+      assertThat(element.findElement("$.pop3Body.mimeBody.parts").orElseThrow())
+          .hasFacet(RbelMimeTruncatedFacet.class);
+      assertThat(element.findElement("$.pop3Body.mimeBody.parts.0").orElseThrow())
+          .hasFacet(RbelMimeTruncatedFacet.class);
+    } finally {
+      TigerGlobalConfiguration.reset();
+    }
+  }
+
+  @Test
+  void shouldTruncatePartsExceedingDecodedSize() {
+    EmailConfigurationKeys.MIME_MAX_DECODED_KB.putValue(1);
+    try {
+      final String mimeMessage =
+          "Content-Type: multipart/mixed; boundary=abc\r\n"
+              + "\r\n"
+              + base64Part(600)
+              + base64Part(600)
+              + base64Part(300)
+              + "--abc--\r\n";
+
+      convertToRbelElement("+OK greeting\r\n");
+      final var parts =
+          convertPop3RetrResponse(getPop3Response(mimeMessage.getBytes()))
+              .findElement("$.pop3Body.mimeBody.parts")
+              .orElseThrow();
+
+      Assertions.assertThat(
+              IntStream.range(0, 3)
+                  .mapToObj(part -> parts.findElement("$." + part + ".mimeBody").orElseThrow())
+                  .map(body -> body.hasFacet(RbelMimeTruncatedFacet.class))
+                  .toList())
+          .containsExactly(false, true, false);
+    } finally {
+      TigerGlobalConfiguration.reset();
+    }
+  }
+
+  private static String base64Part(int decodedLength) {
+    return "--abc\r\n"
+        + "Content-Type: application/octet-stream\r\n"
+        + "Content-Transfer-Encoding: base64\r\n"
+        + "\r\n"
+        + Base64.getMimeEncoder().encodeToString(new byte[decodedLength])
+        + "\r\n";
+  }
+
+  @Test
+  void shouldKeepWireBytesOfTextBodyAndDecodeWithDeclaredCharset() {
+    final String mimeMessage =
+        "Content-Type: text/plain; charset=UTF-8\r\n"
+            + "Content-Transfer-Encoding: 8bit\r\n"
+            + "\r\n"
+            + "Grüße\r\n";
+
+    convertToRbelElement("+OK greeting\r\n");
+    final var body =
+        convertPop3RetrResponse("+OK message follows\r\n" + mimeMessage + "\r\n.\r\n")
+            .findElement("$.pop3Body.mimeBody")
+            .orElseThrow();
+
+    Assertions.assertThat(body.getContent().toByteArray())
+        .startsWith("Grüße".getBytes(StandardCharsets.UTF_8));
+    Assertions.assertThat(body.seekValue(String.class))
+        .hasValueSatisfying(value -> Assertions.assertThat(value).startsWith("Grüße"));
+  }
+
+  @Test
+  void shouldDecodeTransferEncodedBodyAndKeepEncodedContent() {
+    final String mimeMessage =
+        "Content-Type: application/octet-stream\r\n"
+            + "Content-Transfer-Encoding: base64\r\n"
+            + "\r\n"
+            + "Zm9vYmFy\r\nYmF6\r\n";
+
+    convertToRbelElement("+OK greeting\r\n");
+    final var body =
+        convertPop3RetrResponse(getPop3Response(mimeMessage.getBytes()))
+            .findElement("$.pop3Body.mimeBody")
+            .orElseThrow();
+
+    assertThat(body).hasStringContentEqualTo("foobarbaz");
+    Assertions.assertThat(
+            body.getFacetOrFail(RbelMimeBodyFacet.class)
+                .getEncodedContent()
+                .map(content -> new String(content.toByteArray(), StandardCharsets.US_ASCII)))
+        .hasValueSatisfying(
+            encoded -> Assertions.assertThat(encoded).isEqualToIgnoringWhitespace("Zm9vYmFyYmF6"));
+  }
+
+  @Test
+  void shouldNotSplitPartAtLineStartingWithBoundary() {
+    final String mimeMessage =
+        "Content-Type: multipart/mixed; boundary=abc\r\n"
+            + "\r\n"
+            + "--abc\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "first\r\n"
+            + "--abc-def\r\n"
+            + "still first\r\n"
+            + "--abc \r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "second\r\n"
+            + "--abc--\r\n";
+
+    convertToRbelElement("+OK greeting\r\n");
+    final var element = convertPop3RetrResponse(getPop3Response(mimeMessage.getBytes()));
+
+    assertThat(element)
+        .extractChildWithPath("$.pop3Body.mimeBody")
+        .doesNotHaveChildWithPath("$.parts.2")
+        .hasChildWithPath("$.parts.1.mimeBody")
+        .extractChildWithPath("$.parts.0.mimeBody")
+        .hasStringContentEqualTo("first\r\n--abc-def\r\nstill first");
+  }
+
   private RbelElement convertPop3RetrResponse(String pop3Response) {
     return convertMessagePair("RETR 1\r\n", pop3Response);
   }
@@ -23,11 +23,18 @@ package de.gematik.rbellogger.converter;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import de.gematik.rbellogger.data.RbelElement;
+import de.gematik.rbellogger.data.core.TracingMessagePairFacet;
+import de.gematik.rbellogger.facets.pop3.RbelPop3Command;
+import de.gematik.rbellogger.facets.pop3.RbelPop3MailboxIndexFacet;
+import de.gematik.rbellogger.facets.pop3.RbelPop3PairedCommandFacet;
 import de.gematik.rbellogger.facets.pop3.RbelPop3ResponseFacet;
+import de.gematik.rbellogger.testutil.RbelElementAssertion;
+import de.gematik.rbellogger.util.RbelSocketAddress;
+import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import de.gematik.rbellogger.testutil.RbelElementAssertion;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -51,6 +58,98 @@ class RbelPop3ResponseConverterTest extends AbstractResponseConverterTest {
         .hasChildWithPath("$.pop3Body");
   }
 
+  @Test
+  void shouldKeepPairedCommandAsFacetOfResponse() {
+    convertToRbelElement("+OK greeting\r\n");
+    RbelElement element = convertMessagePair("STAT\r\n", "+OK 2 320\r\n");
+
+    var paired = element.getFacetOrFail(RbelPop3PairedCommandFacet.class);
+    assertThat(paired.command()).isEqualTo(RbelPop3Command.STAT);
+    assertThat(paired.request().getFacetOrFail(TracingMessagePairFacet.class).getResponse())
+        .isSameAs(element);
+  }
+
+  @Test
+  void shouldIndexListingAndFrameRetrByAnnouncedSize() {
+    String message = "Subject: a\r\n\r\nhi\r\n";
+    String stuffedMessage = "Subject: b\r\n\r\n..\r\n";
+    // not dot-stuffed by the server, only the announced size frames it correctly
+    String unstuffedMessage = "Subject: c\r\n\r\nx\r\n.\r\ny\r\n";
+    convertToRbelElement("+OK greeting\r\n");
+    RbelElement listing =
+        convertMessagePair("LIST\r\n", "+OK 3 messages\r\n1 18\r\n2 17\r\n3 23\r\n.\r\n");
+
+    var index = listing.getFacetOrFail(RbelPop3MailboxIndexFacet.class);
+    assertThat(index.getMessageCount()).isEqualTo(3);
+    assertThat(index.findSize(1)).hasValue(18);
+    assertThat(index.findSize(2)).hasValue(17);
+    assertThat(index.findSize(3)).hasValue(23);
+    assertThat(index.findSize(4)).isEmpty();
+
+    RbelElementAssertion.assertThat(
+            convertMessagePair("RETR 1\r\n", "+OK 18 octets\r\n" + message + ".\r\n"))
+        .hasStringContentEqualToAtPosition("$.pop3Body", "Subject: a\r\n\r\nhi");
+    // dot-stuffing makes the message longer than announced, so the terminator is searched
+    RbelElementAssertion.assertThat(
+            convertMessagePair("RETR 2\r\n", "+OK 17 octets\r\n" + stuffedMessage + ".\r\n"))
+        .hasStringContentEqualToAtPosition("$.pop3Body", "Subject: b\r\n\r\n.");
+    // a scan would stop at the line with the single dot
+    RbelElementAssertion.assertThat(
+            convertMessagePair("RETR 3\r\n", "+OK 23 octets\r\n" + unstuffedMessage + ".\r\n"))
+        .hasStringContentEqualToAtPosition("$.pop3Body", "Subject: c\r\n\r\nx\r\n\r\ny");
+  }
+
+  @Test
+  void shouldScanForRetrTerminatorIfAnnouncedSizeIsTooLarge() {
+    var client = RbelSocketAddress.create("host1", 1);
+    var server = RbelSocketAddress.create("host2", 2);
+    convertToRbelElement("+OK greeting\r\n", server, client);
+    convertToRbelElement("LIST\r\n", client, server);
+    convertToRbelElement("+OK 1 messages\r\n1 50\r\n.\r\n", server, client);
+    convertToRbelElement("RETR 1\r\nNOOP\r\n", client, server);
+    var noop = convertToRbelElement("NOOP\r\n", client, server);
+
+    // the announced size reaches beyond the response to NOOP which follows
+    var retrResponse =
+        convertToRbelElement(
+            "+OK 50 octets\r\nSubject: a\r\n\r\nhi\r\n.\r\n+OK\r\n", server, client);
+    var noopResponse = convertToRbelElement("+OK\r\n", server, client);
+
+    RbelElementAssertion.assertThat(retrResponse)
+        .hasStringContentEqualToAtPosition("$.pop3Body", "Subject: a\r\n\r\nhi");
+    assertThat(noopResponse.getFacetOrFail(TracingMessagePairFacet.class).getRequest())
+        .isSameAs(noop);
+  }
+
+  @Test
+  void shouldPairPipelinedCommandsWithResponsesInOrder() {
+    var client = RbelSocketAddress.create("host1", 1);
+    var server = RbelSocketAddress.create("host2", 2);
+    convertToRbelElement("+OK greeting\r\n", server, client);
+    var commandLines = List.of("RETR 1\r\n", "RETR 2\r\n", "DELE 1\r\n");
+    // the remainder of the batch is converted again after each recognized command
+    var commands =
+        IntStream.range(0, commandLines.size())
+            .mapToObj(
+                i ->
+                    convertToRbelElement(
+                        String.join("", commandLines.subList(i, commandLines.size())),
+                        client,
+                        server))
+            .toList();
+    var responses =
+        List.of(
+            "+OK\r\nSubject: a\r\n.\r\n", "+OK\r\nSubject: b\r\n.\r\n", "+OK deleted\r\n");
+
+    RbelElementAssertion.assertThat(commands.get(1))
+        .hasStringContentEqualToAtPosition("$.pop3Arguments", "2");
+    for (int i = 0; i < commands.size(); i++) {
+      var response = convertToRbelElement(responses.get(i), server, client);
+      assertThat(response.getFacetOrFail(TracingMessagePairFacet.class).getRequest())
+          .isSameAs(commands.get(i));
+    }
+  }
+
   @Test
   void shouldConvertListHeaderForSingleListRequest() {
     String request = "LIST 1\r\n";
@@ -115,15 +214,19 @@ class RbelPop3ResponseConverterTest extends AbstractResponseConverterTest {
     return RbelElementAssertion.assertThat(element)
         .extractChildWithPath("$.pop3Status")
         .hasStringContentEqualTo(status)
+        .hasValueEqualTo(status)
         .andTheInitialElement()
         .extractChildWithPath("$.pop3Header")
         .hasStringContentEqualTo(header)
+        .hasValueEqualTo(header)
         .andTheInitialElement()
         .extractChildWithPath("$.pop3Header.count")
         .hasStringContentEqualTo(count)
+        .hasValueEqualTo(count)
         .andTheInitialElement()
         .extractChildWithPath("$.pop3Header.size")
-        .hasStringContentEqualTo(size);
+        .hasStringContentEqualTo(size)
+        .hasValueEqualTo(size);
   }
 
   @ParameterizedTest
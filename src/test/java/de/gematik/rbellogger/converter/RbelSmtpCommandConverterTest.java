@@ -160,6 +160,116 @@ class RbelSmtpCommandConverterTest {
         .hasStringContentEqualTo(body);
   }
 
+  @ParameterizedTest
+  @ValueSource(strings = {".", "..", ".\r\n.", "first\r\n.\r\nlast", "first\r\n..second"})
+  void shouldRemoveStuffedDotsAtBodyEdges(String body) {
+    String input =
+        "DATA\r\n" + EmailConversionUtils.duplicateDotsAtLineBegins(body) + "\r\n.\r\n";
+
+    RbelElementAssertion.assertThat(convertToRbelElement(input))
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo(body);
+  }
+
+  @Test
+  void shouldConvertDataCommandArrivingInSegments() {
+    String data = "DATA\r\nSubject: segmented\r\n\r\nfirst line\r\nsecond line\r\n.\r\n";
+
+    for (int end = 10; end < data.length() - 1; end += 7) {
+      RbelElementAssertion.assertThat(convertToRbelElement(data.substring(0, end)))
+          .doesNotHaveChildWithPath("$.smtpCommand");
+    }
+    RbelElement element = convertToRbelElement(data);
+
+    RbelElementAssertion.assertThat(element)
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo("Subject: segmented\r\n\r\nfirst line\r\nsecond line");
+  }
+
+  @Test
+  void shouldNotResumeTerminatorSearchInDifferentDataBodyWithSamePrefixAndSuffix() {
+    String prefix = "DATA\r\nSubject: same prefix for both mails\r\n\r\n";
+    String suffix = "this suffix is the same in both!";
+
+    RbelElementAssertion.assertThat(convertToRbelElement(prefix + "1234567890" + suffix))
+        .doesNotHaveChildWithPath("$.smtpCommand");
+    RbelElement element = convertToRbelElement(prefix + "x\r\n.\r\nNOOP" + suffix + "\r\n.\r\n");
+
+    RbelElementAssertion.assertThat(element)
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo("Subject: same prefix for both mails\r\n\r\nx");
+  }
+
+  @Test
+  void shouldAssembleMailSentInBdatChunks() {
+    String mail = "Subject: chunked\r\n\r\nfirst part, second part";
+    String firstChunk = mail.substring(0, 25);
+    String lastChunk = mail.substring(25);
+
+    RbelElementAssertion.assertThat(
+            convertToRbelElement("BDAT " + firstChunk.length() + "\r\n" + firstChunk))
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo(firstChunk)
+        .doesNotHaveChildWithPath("$.mimeHeader");
+    RbelElement element =
+        convertToRbelElement("BDAT " + lastChunk.length() + " LAST\r\n" + lastChunk);
+
+    RbelElementAssertion.assertThat(element)
+        .extractChildWithPath("$.smtpCommand")
+        .hasValueEqualTo(RbelSmtpCommand.BDAT)
+        .andTheInitialElement()
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo(mail)
+        .hasChildWithPath("$.mimeHeader")
+        .hasChildWithPath("$.mimeBody");
+  }
+
+  @Test
+  void shouldNotAddChunkOfBdatCommandConvertedTwice() {
+    String mail = "Subject: chunked\r\n\r\nfirst part, second part";
+    String firstChunk = mail.substring(0, 25);
+    String lastChunk = mail.substring(25);
+
+    RbelElement first = convertToRbelElement("BDAT " + firstChunk.length() + "\r\n" + firstChunk);
+    converter.convertElement(first);
+    RbelElement element =
+        convertToRbelElement("BDAT " + lastChunk.length() + " LAST\r\n" + lastChunk);
+
+    RbelElementAssertion.assertThat(element)
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo(mail);
+  }
+
+  @Test
+  void shouldNotStartNextMailWithChunkOfCompletedMailConvertedAgain() {
+    String firstChunk = "Subject: first\r\n\r\n";
+    String middleChunk = "first mail, ";
+    String lastChunk = "last part";
+    convertToRbelElement("BDAT " + firstChunk.length() + "\r\n" + firstChunk);
+    RbelElement middle =
+        convertToRbelElement("BDAT " + middleChunk.length() + "\r\n" + middleChunk);
+    convertToRbelElement("BDAT " + lastChunk.length() + " LAST\r\n" + lastChunk);
+
+    converter.convertElement(middle);
+    String nextMail = "Subject: second\r\n\r\nsecond mail";
+    RbelElement element =
+        convertToRbelElement("BDAT " + nextMail.length() + " LAST\r\n" + nextMail);
+
+    RbelElementAssertion.assertThat(middle)
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo(middleChunk);
+    RbelElementAssertion.assertThat(element)
+        .extractChildWithPath("$.smtpBody")
+        .hasStringContentEqualTo(nextMail);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"BDAT 100 LAST\r\nshort", "BDAT LAST\r\n", "BDAT -1\r\n"})
+  void shouldNotConvertIncompleteOrInvalidBdatChunk(String input) {
+    RbelElementAssertion.assertThat(convertToRbelElement(input))
+        .doesNotHaveChildWithPath("$.smtpCommand");
+  }
+
   @Test
   void shouldConvertAuthCommand() {
     String command = "AUTH";
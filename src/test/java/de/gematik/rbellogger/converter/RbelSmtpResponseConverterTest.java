@@ -29,12 +29,14 @@ import de.gematik.rbellogger.data.RbelElement;
 import de.gematik.rbellogger.data.RbelElementAssertion;
 import  de.gematik.rbellogger.util.RbelSocketAddress;
 import de.gematik.rbellogger.data.RbelMessageMetadata;
+import de.gematik.rbellogger.data.core.TracingMessagePairFacet;
 import de.gematik.rbellogger.renderer.RbelHtmlRenderer;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -61,9 +63,11 @@ class RbelSmtpResponseConverterTest {
     RbelElementAssertion.assertThat(element)
         .extractChildWithPath("$.status")
         .hasStringContentEqualTo(status)
+        .hasValueEqualTo(status)
         .andTheInitialElement()
         .extractChildWithPath("$.body")
-        .hasStringContentEqualTo(body);
+        .hasStringContentEqualTo(body)
+        .hasValueEqualTo(body);
   }
 
   @Test
@@ -101,6 +105,76 @@ class RbelSmtpResponseConverterTest {
         .hasStringContentEqualTo(body);
   }
 
+  @Test
+  void shouldConvertMultilineSmtpResponseFollowedByFurtherData() {
+    RbelElement element =
+        convertToRbelElement("250-Grüße\r\n250-\r\n250 OK\r\n250 second reply\r\n");
+
+    RbelElementAssertion.assertThat(element)
+        .extractChildWithPath("$.status")
+        .hasStringContentEqualTo("250")
+        .andTheInitialElement()
+        .extractChildWithPath("$.body")
+        .hasStringContentEqualTo("Grüße\r\n\r\nOK\r\n");
+  }
+
+  @Test
+  void shouldPairPipelinedCommandsWithResponsesInOrder() {
+    var client = RbelSocketAddress.create("host1", 1);
+    var server = RbelSocketAddress.create("host2", 2);
+    var commandLines =
+        List.of("MAIL FROM:<a@b.de>\r\n", "RCPT TO:<c@d.de>\r\n", "RCPT TO:<e@f.de>\r\n");
+    // the remainder of the batch is converted again after each recognized command
+    var commands =
+        IntStream.range(0, commandLines.size())
+            .mapToObj(
+                i ->
+                    convertToRbelElement(
+                        String.join("", commandLines.subList(i, commandLines.size())),
+                        client,
+                        server))
+            .toList();
+
+    RbelElementAssertion.assertThat(commands.get(2))
+        .extractChildWithPath("$.smtpArguments")
+        .hasStringContentEqualTo("TO:<e@f.de>");
+    for (var command : commands) {
+      var response = convertToRbelElement("250 OK\r\n", server, client);
+      RbelElementAssertion.assertThat(
+              response.getFacetOrFail(TracingMessagePairFacet.class).getRequest())
+          .isEqualTo(command);
+    }
+  }
+
+  @Test
+  void shouldNotFrameBatchWithTheRemainderOfAnotherBatchStartingWithTheSameBytes() {
+    var client = RbelSocketAddress.create("host1", 1);
+    var server = RbelSocketAddress.create("host2", 2);
+    var sharedPrefix = "RCPT TO:<recipient.with.a.long.name@";
+    // the remainder of the first batch is never converted, e.g. because it was not captured
+    var mailFrom =
+        convertToRbelElement("MAIL FROM:<a@b.de>\r\n" + sharedPrefix + "a.de>\r\n", client, server);
+    var firstResponse = convertToRbelElement("250 OK\r\n", server, client);
+    var firstRecipient =
+        convertToRbelElement(
+            sharedPrefix + "other.de>\r\nRCPT TO:<c@d.de>\r\n", client, server);
+    var secondRecipient = convertToRbelElement("RCPT TO:<c@d.de>\r\n", client, server);
+
+    RbelElementAssertion.assertThat(firstRecipient)
+        .extractChildWithPath("$.smtpArguments")
+        .hasStringContentEqualTo("TO:<recipient.with.a.long.name@other.de>");
+    RbelElementAssertion.assertThat(secondRecipient)
+        .extractChildWithPath("$.smtpArguments")
+        .hasStringContentEqualTo("TO:<c@d.de>");
+    assertThat(firstResponse.getFacetOrFail(TracingMessagePairFacet.class).getRequest())
+        .isSameAs(mailFrom);
+    for (var command : List.of(firstRecipient, secondRecipient)) {
+      var response = convertToRbelElement("250 OK\r\n", server, client);
+      assertThat(response.getFacetOrFail(TracingMessagePairFacet.class).getRequest())
+          .isSameAs(command);
+    }
+  }
+
   private static String generateResponse(String status, String[] lines) {
     StringBuilder response = new StringBuilder();
     for (int i = 0; i < lines.length; i++) {
@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.facets.mime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.rbellogger.util.RbelContent;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class MimeTransferDecodingTest {
+
+  @Test
+  void shouldDecodeBase64AcrossLineBreaksAndBlocks() {
+    var bytes = new byte[200_000];
+    new Random(42).nextBytes(bytes);
+    var encoded = Base64.getMimeEncoder().encode(bytes);
+
+    var decoded = MimeTransferDecoding.decode(RbelContent.of(encoded), "Base64");
+
+    assertThat(decoded.toByteArray()).isEqualTo(bytes);
+  }
+
+  @ParameterizedTest
+  @CsvSource({"Zg==,f", "Zm8=,fo", "Zm9v,foo", "Zm9v{CRLF}YmFy,foobar", "Zm9vYg==ignored,foob"})
+  void shouldDecodeBase64Leniently(String encoded, String expected) {
+    assertThat(decodeToString(encoded, "base64")).isEqualTo(expected);
+  }
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      value = {
+        "caf=C3=A9|café",
+        "soft={CRLF}break|softbreak",
+        "soft= {TAB}{CRLF}break|softbreak",
+        "lf only={LF}break|lf onlybreak",
+        "trailing {TAB}{CRLF}blanks|trailing{CRLF}blanks",
+        "inner  blanks|inner  blanks",
+        "invalid =ZZ escape|invalid =ZZ escape",
+        "lower =c3=a9|lower é",
+        "at end=|at end"
+      })
+  void shouldDecodeQuotedPrintable(String encoded, String expected) {
+    assertThat(decodeToString(encoded, "quoted-printable")).isEqualTo(withLineBreaks(expected));
+  }
+
+  @Test
+  void shouldReturnBodiesWithoutTransferEncodingUnchanged() {
+    var raw = RbelContent.of("=C3=A9".getBytes(StandardCharsets.US_ASCII));
+
+    assertThat(MimeTransferDecoding.decode(raw, "8bit")).isSameAs(raw);
+    assertThat(MimeTransferDecoding.decode(raw, null)).isSameAs(raw);
+  }
+
+  private static String decodeToString(String encoded, String transferEncoding) {
+    return new String(
+        MimeTransferDecoding.decode(
+                RbelContent.of(withLineBreaks(encoded).getBytes(StandardCharsets.UTF_8)),
+                transferEncoding)
+            .toByteArray(),
+        StandardCharsets.UTF_8);
+  }
+
+  private static String withLineBreaks(String value) {
+    return value.replace("{CRLF}", "\r\n").replace("{LF}", "\n").replace("{TAB}", "\t");
+  }
+}
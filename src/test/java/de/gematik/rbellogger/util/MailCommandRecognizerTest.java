@@ -0,0 +1,80 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.rbellogger.facets.pop3.RbelPop3Command;
+import de.gematik.rbellogger.facets.smtp.RbelSmtpCommand;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MailCommandRecognizerTest {
+
+  private final MailCommandRecognizer<RbelSmtpCommand> smtpRecognizer =
+      new MailCommandRecognizer<>(RbelSmtpCommand.class, 6);
+  private final MailCommandRecognizer<RbelPop3Command> pop3Recognizer =
+      new MailCommandRecognizer<>(RbelPop3Command.class, RbelPop3Command.MAX_LENGTH + 1);
+
+  @ParameterizedTest
+  @EnumSource(RbelSmtpCommand.class)
+  void shouldRecognizeSmtpCommandIgnoringCase(RbelSmtpCommand command) {
+    assertThat(smtpRecognizer.recognize(content(command.name() + "\r\n"))).contains(command);
+    assertThat(smtpRecognizer.recognize(content(command.name().toLowerCase() + " foo\r\n")))
+        .contains(command);
+  }
+
+  @ParameterizedTest
+  @EnumSource(RbelPop3Command.class)
+  void shouldRecognizePop3CommandIgnoringCase(RbelPop3Command command) {
+    assertThat(pop3Recognizer.recognize(content(command.name() + "\r\n"))).contains(command);
+    assertThat(pop3Recognizer.recognize(content(command.name().toLowerCase() + " 1\r\n")))
+        .contains(command);
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "250 OK\r\n",
+        "+OK ready\r\n",
+        "HELOX\r\n",
+        "HEL\r\n",
+        "      ",
+        "\r\n\r\n\r\n",
+        "HÉLO \r\n",
+        "HELO", // shorter than the window
+      })
+  void shouldRejectNonCommands(String input) {
+    assertThat(smtpRecognizer.recognize(content(input))).isEmpty();
+  }
+
+  @Test
+  void shouldSkipLeadingWhitespace() {
+    assertThat(pop3Recognizer.recognize(content(" TOP 1 2\r\n"))).contains(RbelPop3Command.TOP);
+  }
+
+  private static RbelContent content(String input) {
+    return RbelContent.of(input.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class MailLineIndexTest {
+
+  @Test
+  void shouldIndexCrlfTerminatedLines() {
+    var lines = MailLineIndex.of(RbelContent.of("+OK\r\n+ more\r\n\r\nbody\r\n.\r\n".getBytes()));
+
+    assertThat(lines.lineCount()).isEqualTo(5);
+    assertThat(asString(lines.line(1))).isEqualTo("+ more\r\n");
+    assertThat(asString(lines.lineWithoutCrlf(3))).isEqualTo("body");
+    assertThat(lines.lineStart(2)).isEqualTo(13);
+    assertThat(lines.lineStartsWith(1, "+ ".getBytes())).isTrue();
+    assertThat(lines.lineStartsWith(2, "+ ".getBytes())).isFalse();
+  }
+
+  @Test
+  void shouldKeepUnterminatedLastLine() {
+    var lines = MailLineIndex.of(RbelContent.of("first\r\nsecond".getBytes()));
+
+    assertThat(lines.lineCount()).isEqualTo(2);
+    assertThat(asString(lines.lineWithoutCrlf(1))).isEqualTo("second");
+  }
+
+  private static String asString(RbelContent content) {
+    return new String(content.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -43,6 +43,16 @@ public class Certs {
   public static final Path ECC_P12 =
       Paths.get("src/test/resources", "kim/keys/2_C.FD.AUT_oid_epa_vau_ecc.p12");
 
+  public static final String REC1_SUBJECT_KEY_IDENTIFIER =
+      "F1A5FB5B50C1F295AD64775FDCFCA2449C23AD23";
+
+  // self-signed, both with serial number 4711
+  public static final Path SERIAL_COLLISION_A_P12 =
+      Paths.get("src/test/resources", "crypto/serial-collision-A.p12");
+
+  public static final Path SERIAL_COLLISION_B_P12 =
+      Paths.get("src/test/resources", "crypto/serial-collision-B.p12");
+
   public static final Path PSYCHO_PROF_PEM =
       Paths.get("src/test/resources", "Psychotherapeut_zwei_prof_E256.pem");
 }
@@ -21,6 +21,7 @@
 package de.gematik.rbellogger.util.email_crypto;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import de.gematik.rbellogger.key.IdentityBackedRbelKey;
 import de.gematik.rbellogger.key.RbelKeyManager;
@@ -40,7 +41,10 @@ class EmailDecryptionTest {
   private final byte[] BYTES = TEXT.getBytes();
 
   private RbelKeyManager getKeyManager(Path path) {
-    RbelKeyManager keyManager = new RbelKeyManager();
+    return addIdentity(new RbelKeyManager(), path);
+  }
+
+  private RbelKeyManager addIdentity(RbelKeyManager keyManager, Path path) {
     var identity = TigerPkiIdentityLoader.loadRbelPkiIdentityWithGuessedPassword(path.toFile());
     IdentityBackedRbelKey.generateRbelKeyPairForIdentity(identity).forEach(keyManager::addKey);
     return keyManager;
@@ -90,4 +94,15 @@ class EmailDecryptionTest {
         decryptData,
         "The plain byte array and the encrypted and redecrypted byte are not equal.");
   }
+
+  @Test
+  void shouldFindKeyOfIdentityAddedAfterFirstDecryption() throws Exception {
+    var keys = getKeyManager(Certs.ECC_P12);
+    var enc = Files.readAllBytes(Paths.get("src/test/resources/crypto/encrypted2.encrypted"));
+
+    assertTrue(EmailDecryption.decrypt(RbelContent.of(enc), keys).isEmpty());
+
+    addIdentity(keys, Certs.SIGNER1_P12);
+    assertArrayEquals(BYTES, EmailDecryption.decrypt(RbelContent.of(enc), keys).orElse(null));
+  }
 }
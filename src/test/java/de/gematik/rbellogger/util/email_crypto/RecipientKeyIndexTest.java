@@ -0,0 +1,138 @@
+/*
+ *
+ * Copyright 2021-2025 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+package de.gematik.rbellogger.util.email_crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.rbellogger.key.IdentityBackedRbelKey;
+import de.gematik.rbellogger.key.RbelKeyManager;
+import de.gematik.test.tiger.common.pki.TigerPkiIdentity;
+import de.gematik.test.tiger.common.pki.TigerPkiIdentityLoader;
+import java.nio.file.Path;
+import java.util.List;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cms.KeyTransRecipientId;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.jupiter.api.Test;
+
+class RecipientKeyIndexTest {
+
+  private static TigerPkiIdentity addIdentity(RbelKeyManager keyManager, Path path) {
+    var identity = TigerPkiIdentityLoader.loadRbelPkiIdentityWithGuessedPassword(path.toFile());
+    IdentityBackedRbelKey.generateRbelKeyPairForIdentity(identity).forEach(keyManager::addKey);
+    return identity;
+  }
+
+  private static KeyTransRecipientId issuerAndSerialNumberOf(TigerPkiIdentity identity) {
+    var certificate = identity.getCertificate();
+    return new KeyTransRecipientId(
+        X500Name.getInstance(certificate.getIssuerX500Principal().getEncoded()),
+        certificate.getSerialNumber());
+  }
+
+  @Test
+  void shouldDistinguishKeysWithSameSerialNumberOfDifferentIssuers() {
+    var keyManager = new RbelKeyManager();
+    var identityA = addIdentity(keyManager, Certs.SERIAL_COLLISION_A_P12);
+    var identityB = addIdentity(keyManager, Certs.SERIAL_COLLISION_B_P12);
+    assertThat(identityA.getCertificate().getSerialNumber())
+        .isEqualTo(identityB.getCertificate().getSerialNumber());
+
+    var keys = RecipientKeyIndex.of(keyManager);
+
+    assertThat(keys.find(issuerAndSerialNumberOf(identityA)))
+        .contains(identityA.getPrivateKey());
+    assertThat(keys.find(issuerAndSerialNumberOf(identityB)))
+        .contains(identityB.getPrivateKey());
+    assertThat(
+            keys.find(
+                new KeyTransRecipientId(
+                    null, identityA.getCertificate().getSerialNumber(), null)))
+        .isEmpty();
+  }
+
+  @Test
+  void shouldFindKeyOfRecipientIdentifiedBySubjectKeyIdentifier() {
+    var keyManager = new RbelKeyManager();
+    addIdentity(keyManager, Certs.SERIAL_COLLISION_A_P12);
+    var identity = addIdentity(keyManager, Certs.REC1_P12_PATH);
+
+    var keys = RecipientKeyIndex.of(keyManager);
+
+    assertThat(
+            keys.find(new KeyTransRecipientId(Hex.decode(Certs.REC1_SUBJECT_KEY_IDENTIFIER))))
+        .contains(identity.getPrivateKey());
+    assertThat(keys.find(new KeyTransRecipientId(new byte[] {1, 2, 3}))).isEmpty();
+  }
+
+  @Test
+  void shouldOnlyRefreshWhenKeysOfManagerChanged() {
+    var keyManager = new RbelKeyManager();
+    addIdentity(keyManager, Certs.SERIAL_COLLISION_A_P12);
+    var keys = RecipientKeyIndex.of(keyManager);
+    assertThat(keys.refreshed(keyManager)).isEmpty();
+
+    var identity = addIdentity(keyManager, Certs.SERIAL_COLLISION_B_P12);
+
+    var refreshedKeys = keys.refreshed(keyManager);
+    assertThat(refreshedKeys).isPresent();
+    assertThat(refreshedKeys.get().find(issuerAndSerialNumberOf(identity)))
+        .contains(identity.getPrivateKey());
+    assertThat(RecipientKeyIndex.of(keyManager)).isSameAs(refreshedKeys.get());
+  }
+
+  @Test
+  void shouldKeepIndexPerKeyManager() {
+    var keyManagerA = new RbelKeyManager();
+    var identityA = addIdentity(keyManagerA, Certs.SERIAL_COLLISION_A_P12);
+    var keyManagerB = new RbelKeyManager();
+    var identityB = addIdentity(keyManagerB, Certs.SERIAL_COLLISION_B_P12);
+
+    var keysA = RecipientKeyIndex.of(keyManagerA);
+    var keysB = RecipientKeyIndex.of(keyManagerB);
+
+    assertThat(RecipientKeyIndex.of(keyManagerA)).isSameAs(keysA);
+    assertThat(keysA.find(issuerAndSerialNumberOf(identityA)))
+        .contains(identityA.getPrivateKey());
+    assertThat(keysA.find(issuerAndSerialNumberOf(identityB))).isEmpty();
+    assertThat(keysB.find(issuerAndSerialNumberOf(identityB)))
+        .contains(identityB.getPrivateKey());
+  }
+
+  @Test
+  void shouldRememberMissedRecipientsUntilKeysOfManagerChanged() {
+    var keyManager = new RbelKeyManager();
+    addIdentity(keyManager, Certs.SERIAL_COLLISION_A_P12);
+    var otherKeyManager = new RbelKeyManager();
+    var recipient =
+        issuerAndSerialNumberOf(addIdentity(otherKeyManager, Certs.SERIAL_COLLISION_B_P12));
+    var keys = RecipientKeyIndex.of(keyManager);
+
+    assertThat(keys.refreshedAfterMiss(keyManager, List.of(recipient))).isEmpty();
+    assertThat(keys.refreshedAfterMiss(keyManager, List.of(recipient))).isEmpty();
+
+    var identity = addIdentity(keyManager, Certs.SERIAL_COLLISION_B_P12);
+
+    var refreshedKeys = keys.refreshedAfterMiss(keyManager, List.of(recipient));
+    assertThat(refreshedKeys).isPresent();
+    assertThat(refreshedKeys.get().find(recipient)).contains(identity.getPrivateKey());
+  }
+}